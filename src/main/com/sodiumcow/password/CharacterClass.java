@@ -0,0 +1,205 @@
+package com.sodiumcow.password;
+
+import java.util.Arrays;
+
+/**
+ * A set of characters defined in a rules specification, for example the
+ * special characters a downstream system accepts.  The set is compiled
+ * into a 128-bit bitset for ASCII and a sorted table of ranges for
+ * everything else, so that {@link #contains} costs a shift and a mask in
+ * the common case.
+ * <p>
+ * The definition lists characters and ranges, like a regular expression
+ * character class without the brackets: {@code a-zA-Z0-9!@#$%}.  Use
+ * {@code \\}, {@code \-} and {@code \"} for those characters and
+ * {@code \}{@code uXXXX} for any other.
+ */
+public class CharacterClass {
+
+    private final long  low;    // bits for 0-63
+    private final long  high;   // bits for 64-127
+    private final int[] ranges; // start,end pairs above 127, sorted and disjoint
+
+    private CharacterClass(long low, long high, int[] ranges) {
+        this.low    = low;
+        this.high   = high;
+        this.ranges = ranges;
+    }
+
+    /**
+     * Compiles a character class definition.
+     * @param spec the definition
+     * @return the CharacterClass
+     * @throws IllegalArgumentException if the definition is malformed
+     */
+    public static CharacterClass parse(String spec) {
+        long  low   = 0;
+        long  high  = 0;
+        int[] pairs = new int[8];
+        int   n     = 0;
+        int   i     = 0;
+        while (i<spec.length()) {
+            int[] c = new int[] {0, i};
+            char  start = next(spec, c);
+            char  end   = start;
+            i = c[1];
+            if (i+1<spec.length() && spec.charAt(i)=='-') {
+                c[1] = i+1;
+                end  = next(spec, c);
+                i    = c[1];
+                if (end<start) {
+                    throw new IllegalArgumentException("invalid character class range: "+spec);
+                }
+            }
+            for (int ch=start; ch<=end && ch<128; ch++) {
+                if (ch<64) low  |= 1L<<ch;
+                else       high |= 1L<<ch;
+            }
+            if (end>=128) {
+                if (n==pairs.length) {
+                    pairs = Arrays.copyOf(pairs, 2*n);
+                }
+                pairs[n++] = Math.max(start, 128);
+                pairs[n++] = end;
+            }
+        }
+        return new CharacterClass(low, high, merge(pairs, n));
+    }
+
+    /**
+     * Reads one possibly escaped character at {@code pos[1]}, advancing it.
+     */
+    private static char next(String spec, int[] pos) {
+        int  i = pos[1];
+        char c = spec.charAt(i++);
+        if (c=='\\') {
+            if (i>=spec.length()) {
+                throw new IllegalArgumentException("invalid character class escape: "+spec);
+            }
+            c = spec.charAt(i++);
+            if (c=='u') {
+                if (i+4>spec.length()) {
+                    throw new IllegalArgumentException("invalid character class escape: "+spec);
+                }
+                try {
+                    c = (char)Integer.parseInt(spec.substring(i, i+4), 16);
+                } catch (NumberFormatException e) {
+                    throw new IllegalArgumentException("invalid character class escape: "+spec);
+                }
+                i += 4;
+            }
+        }
+        pos[1] = i;
+        return c;
+    }
+
+    private static int[] merge(int[] pairs, int n) {
+        // sort the pairs by start, then coalesce overlapping or adjacent ranges
+        long[] sorted = new long[n/2];
+        for (int i=0; i<n; i+=2) {
+            sorted[i/2] = (long)pairs[i]<<32 | pairs[i+1];
+        }
+        Arrays.sort(sorted);
+        int[] merged = new int[n];
+        int   m      = 0;
+        for (long p : sorted) {
+            int start = (int)(p>>>32);
+            int end   = (int)p;
+            if (m>0 && start<=merged[m-1]+1) {
+                merged[m-1] = Math.max(merged[m-1], end);
+            } else {
+                merged[m++] = start;
+                merged[m++] = end;
+            }
+        }
+        return Arrays.copyOf(merged, m);
+    }
+
+    /**
+     * Tests for membership.
+     * @param c the character
+     * @return true if c is in the class
+     */
+    public boolean contains(char c) {
+        if (c<128) {
+            return ((c<64 ? low : high) >>> c & 1L) != 0; // shifts use the low 6 bits of c
+        }
+        int lo = 0;
+        int hi = ranges.length/2 - 1;
+        while (lo<=hi) {
+            int mid = (lo+hi)>>>1;
+            if (c<ranges[2*mid]) {
+                hi = mid-1;
+            } else if (c>ranges[2*mid+1]) {
+                lo = mid+1;
+            } else {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Counts the characters of a String in the class.
+     * @param s the String
+     * @return the count
+     */
+    public int count(String s) {
+        int count = 0;
+        for (int i=0; i<s.length(); i++) {
+            if (contains(s.charAt(i))) count++;
+        }
+        return count;
+    }
+
+    private static void append(StringBuilder sb, int c) {
+        if (c=='\\' || c=='"' || c=='-') {
+            sb.append('\\').append((char)c);
+        } else if (c<=' ' || c>='\u007f') {
+            sb.append(String.format("\\u%04x", c));
+        } else {
+            sb.append((char)c);
+        }
+    }
+
+    private static void append(StringBuilder sb, int start, int end) {
+        append(sb, start);
+        if (end>start+1) sb.append('-');
+        if (end>start)   append(sb, end);
+    }
+
+    /**
+     * Returns the canonical definition: the characters in order, with runs
+     * of three or more written as ranges.
+     */
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder();
+        int start = -1;
+        for (int c=0; c<=128; c++) {
+            boolean in = c<128 && contains((char)c);
+            if (in && start<0) {
+                start = c;
+            } else if (!in && start>=0) {
+                append(sb, start, c-1);
+                start = -1;
+            }
+        }
+        for (int i=0; i<ranges.length; i+=2) {
+            append(sb, ranges[i], ranges[i+1]);
+        }
+        return sb.toString();
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (!(o instanceof CharacterClass)) return false;
+        CharacterClass other = (CharacterClass)o;
+        return low==other.low && high==other.high && Arrays.equals(ranges, other.ranges);
+    }
+
+    @Override
+    public int hashCode() {
+        return (int)(low ^ low>>>32 ^ high ^ high>>>32) ^ Arrays.hashCode(ranges);
+    }
+}
@@ -0,0 +1,28 @@
+package com.sodiumcow.password;
+
+import java.util.EnumMap;
+
+/**
+ * The {@link CharacterType} counts of a password together with its
+ * {@link CharacterRuns}, collected in a single pass over the password and
+ * shared by the {@link PasswordConstraint}s that need them.
+ */
+public class CharacterCounts extends EnumMap<CharacterType,Integer> {
+    private static final long serialVersionUID = 1L;
+
+    public final CharacterRuns runs = new CharacterRuns();
+
+    public CharacterCounts() {
+        super(CharacterType.class);
+    }
+
+    /**
+     * Counts the characters and runs of a password.
+     * @param password the password to inspect
+     * @return this
+     */
+    public CharacterCounts count(String password) {
+        putAll(CharacterType.of(password, runs));
+        return this;
+    }
+}
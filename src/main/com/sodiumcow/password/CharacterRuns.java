@@ -0,0 +1,62 @@
+package com.sodiumcow.password;
+
+/**
+ * Tracks the longest runs of repeated characters ({@code aaaa}), sequential
+ * characters ({@code 1234}, {@code abcd}, {@code dcba}) and keyboard walks
+ * ({@code qwerty}, {@code 1qaz}) in a password.  Feed it one character at a
+ * time from the loop that classifies the characters, so that no additional
+ * scan of the password is needed.
+ */
+public class CharacterRuns {
+
+    private final KeyboardLayout layout;
+
+    private int  maxRepeat   = 0;
+    private int  maxSequence = 0;
+    private int  maxKeywalk  = 0;
+
+    private char last     = 0;
+    private int  repeat   = 0;
+    private int  sequence = 0;
+    private int  step     = 0; // +1 or -1 for the current sequence
+    private int  keywalk  = 0;
+
+    public CharacterRuns() {
+        this(KeyboardLayout.US_QWERTY);
+    }
+
+    public CharacterRuns(KeyboardLayout layout) {
+        this.layout = layout;
+    }
+
+    public int getMaxRepeat()   { return maxRepeat;   }
+    public int getMaxSequence() { return maxSequence; }
+    public int getMaxKeywalk()  { return maxKeywalk;  }
+
+    /**
+     * Updates the runs with the next character of the password.
+     * @param c the character
+     */
+    public void add(char c) {
+        if (repeat==0) {
+            repeat = sequence = keywalk = 1;
+        } else {
+            repeat = c==last ? repeat+1 : 1;
+
+            int d = Character.toLowerCase(c) - Character.toLowerCase(last);
+            if ((d==1 || d==-1) && Character.isLetterOrDigit(c) && Character.isLetterOrDigit(last)) {
+                sequence = d==step ? sequence+1 : 2;
+                step     = d;
+            } else {
+                sequence = 1;
+                step     = 0;
+            }
+
+            keywalk = layout.adjacent(last, c) ? keywalk+1 : 1;
+        }
+        last = c;
+        if (repeat  >maxRepeat  ) maxRepeat   = repeat;
+        if (sequence>maxSequence) maxSequence = sequence;
+        if (keywalk >maxKeywalk ) maxKeywalk  = keywalk;
+    }
+}
@@ -0,0 +1,40 @@
+package com.sodiumcow.password;
+
+/**
+ * Lookup tables prebuilt by CharacterTablesGenerator (in the tests), so
+ * that loading the classes that use them is a constant load rather than a
+ * computation.  Do not edit: change the definitions and regenerate.
+ */
+final class CharacterTables {
+
+    private CharacterTables() {
+    }
+
+    /** CharacterType ordinal of each Latin-1 character, offset by '0'. */
+    static final String TYPES =
+        "0000000000000000000000000000000015555555555555552222222222555555" +
+        "5333333333333333333333333335555554444444444444444444444444455550" +
+        "0000000000000000000000000000000015555505500050050500545550000005" +
+        "3333333333333333333333353333333444444444444444444444444544444444";
+
+    /** US QWERTY key number of each ASCII character, offset by '0'. */
+    static final String US_QWERTY_KEYS =
+        "/////////////////////////////////1T3457T9:8<\\;]^:123456789SS\\<]^" +
+        "2JYWL?MNODPQR[ZEF=@KACX>VBUGIH6;0JYWL?MNODPQR[ZEF=@KACX>VBUGIH0/";
+
+    /** US QWERTY adjacency bitmask of each key. */
+    static final long[] US_QWERTY_ADJACENCY = {
+        0x0000000000000002L, 0x0000000000002005L, 0x000000000000600aL, 0x000000000000c014L,
+        0x0000000000018028L, 0x0000000000030050L, 0x00000000000600a0L, 0x00000000000c0140L,
+        0x0000000000180280L, 0x0000000000300500L, 0x0000000000600a00L, 0x0000000000c01400L,
+        0x0000000001800800L, 0x0000000004004006L, 0x000000000c00a00cL, 0x0000000018014018L,
+        0x0000000030028030L, 0x0000000060050060L, 0x00000000c00a00c0L, 0x0000000180140180L,
+        0x0000000300280300L, 0x0000000600500600L, 0x0000000c00a00c00L, 0x0000001801401800L,
+        0x0000001002801000L, 0x0000000001000000L, 0x0000002008006000L, 0x000000601400c000L,
+        0x000000c028018000L, 0x0000018050030000L, 0x00000300a0060000L, 0x00000601400c0000L,
+        0x00000c0280180000L, 0x0000180500300000L, 0x0000300a00600000L, 0x0000601400c00000L,
+        0x0000400801800000L, 0x000000400c000000L, 0x000000a018000000L, 0x0000014030000000L,
+        0x0000028060000000L, 0x00000500c0000000L, 0x00000a0180000000L, 0x0000140300000000L,
+        0x0000280600000000L, 0x0000500c00000000L, 0x0000201800000000L,
+    };
+}
@@ -11,12 +11,25 @@ import java.util.Map;
 public enum CharacterType {
     CONTROL, SPACE, DIGIT, UPPER, LOWER, SPECIAL;
 
+    private static final CharacterType[] VALUES = values();
+
     /**
      * Returns the CharacterType mapped from java.lang.Character types.
+     * Latin-1 characters are looked up in a prebuilt table.
      * @param c the character
      * @return its CharacterType
      */
     public static CharacterType of(char c) {
+        return c<CharacterTables.TYPES.length() ? VALUES[CharacterTables.TYPES.charAt(c)-'0'] : ofType(c);
+    }
+
+    /**
+     * Maps java.lang.Character types directly, for characters outside the
+     * prebuilt table (and to build it).
+     * @param c the character
+     * @return its CharacterType
+     */
+    static CharacterType ofType(char c) {
         switch (Character.getType(c)) {
         case Character.DECIMAL_DIGIT_NUMBER:    // 0-9
             return DIGIT;
@@ -46,6 +59,17 @@ public enum CharacterType {
      * @return the counts collected by CharacterType
      */
     public static Map<CharacterType,Integer> of(String s) {
+        return of(s, null);
+    }
+
+    /**
+     * Returns a Map of CharacterType counts for a String, also feeding each
+     * character to a {@link CharacterRuns} tracker in the same pass.
+     * @param s the String to inspect
+     * @param runs the tracker to update, or null
+     * @return the counts collected by CharacterType
+     */
+    public static Map<CharacterType,Integer> of(String s, CharacterRuns runs) {
         EnumMap<CharacterType,Integer> counts = new EnumMap<CharacterType, Integer>(CharacterType.class);
         for (CharacterType t : CharacterType.values()) {
             counts.put(t,  0);
@@ -53,6 +77,9 @@ public enum CharacterType {
         for (char c : s.toCharArray()) {
             CharacterType t = of(c);
             counts.put(t, counts.get(t)+1);
+            if (runs!=null) {
+                runs.add(c);
+            }
         }
         return counts;
     }
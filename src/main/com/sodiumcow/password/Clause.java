@@ -0,0 +1,108 @@
+package com.sodiumcow.password;
+
+/**
+ * Scanner for the clauses of a rules specification, shared by
+ * {@link PasswordRules#PasswordRules(String)} and
+ * {@link PasswordConstraint#parse}.  At a given position it accepts exactly
+ * what the regular expression
+ * <pre>
+ *    \s*(!)?\s*(\w+)\s*(?:([&lt;&gt;])=\s*(\d+)\s*|=\s*"((?:[^"\\]|\\.)*)"\s*)?
+ * </pre>
+ * would (the quoted alternative only when character classes are allowed),
+ * without compiling a Pattern when the parsers are first loaded.
+ */
+class Clause {
+
+    private final String  spec;
+    private final boolean classes;
+
+    boolean bang;   // 1:! or nothing
+    String  id;     // 2:the word
+    char    ineq;   // 3:< or > for op, = for "characters", or x
+    int     limit;  // 4:the number, or -1
+    String  chars;  // 5:the characters (with any \ escapes), or null
+    int     end;    // just past the clause and any trailing whitespace
+
+    /**
+     * @param spec the specification
+     * @param classes true to accept word="characters"
+     */
+    Clause(String spec, boolean classes) {
+        this.spec    = spec;
+        this.classes = classes;
+    }
+
+    private static boolean space(char c) {
+        return c==' ' || c=='\t' || c=='\n' || c=='\u000b' || c=='\f' || c=='\r';
+    }
+
+    private static boolean digit(char c) {
+        return c>='0' && c<='9';
+    }
+
+    private static boolean word(char c) {
+        return c>='a' && c<='z' || c>='A' && c<='Z' || digit(c) || c=='_';
+    }
+
+    private static boolean lineTerminator(char c) {
+        return c=='\n' || c=='\r' || c=='\u0085' || c=='\u2028' || c=='\u2029';
+    }
+
+    private int skipSpace(int i) {
+        while (i<spec.length() && space(spec.charAt(i))) i++;
+        return i;
+    }
+
+    /**
+     * Scans one clause starting exactly at {@code i}.
+     * @param i the position
+     * @return true if a clause was found, setting the fields
+     */
+    boolean match(int i) {
+        int n = spec.length();
+        int p = skipSpace(i);
+        bang  = p<n && spec.charAt(p)=='!';
+        if (bang) {
+            p = skipSpace(p+1);
+        }
+        int w = p;
+        while (p<n && word(spec.charAt(p))) p++;
+        if (p==w) {
+            return false;
+        }
+        id    = spec.substring(w, p);
+        ineq  = 'x';
+        limit = -1;
+        chars = null;
+        p     = skipSpace(p);
+        if (p+1<n && (spec.charAt(p)=='<' || spec.charAt(p)=='>') && spec.charAt(p+1)=='=') {
+            int d = skipSpace(p+2);
+            int e = d;
+            while (e<n && digit(spec.charAt(e))) e++;
+            if (e>d) {
+                ineq  = spec.charAt(p);
+                limit = Integer.valueOf(spec.substring(d, e));
+                p     = skipSpace(e);
+            }
+        } else if (classes && p<n && spec.charAt(p)=='=') {
+            int q = skipSpace(p+1);
+            if (q<n && spec.charAt(q)=='"') {
+                int start = ++q;
+                while (q<n && spec.charAt(q)!='"') {
+                    if (spec.charAt(q)=='\\') {
+                        if (q+1>=n || lineTerminator(spec.charAt(q+1))) break;
+                        q++;
+                    }
+                    q++;
+                }
+                if (q<n && spec.charAt(q)=='"') {
+                    ineq  = '=';
+                    chars = spec.substring(start, q);
+                    p     = skipSpace(q+1);
+                }
+            }
+        }
+        end = p;
+        return true;
+    }
+}
@@ -0,0 +1,143 @@
+package com.sodiumcow.password;
+
+/**
+ * Bounded edit distance between two passwords.  Strings of up to 64
+ * characters use the bit-parallel algorithm of Myers (in Hyyr&ouml;'s
+ * formulation, which also handles adjacent transpositions), processing one
+ * column of the dynamic programming matrix per 64-bit word operation.
+ * Longer strings fall back to a two-row matrix.
+ * <p>
+ * All methods take a bound {@code k} and stop as soon as the distance is
+ * known to exceed it, returning {@code k+1}.
+ */
+public class EditDistance {
+
+    private EditDistance() {
+        // static methods only
+    }
+
+    /**
+     * Returns the Levenshtein distance (insert, delete, substitute).
+     * @param a one string
+     * @param b the other string
+     * @param k the bound
+     * @return the distance, or k+1 if it exceeds k
+     * @throws IllegalArgumentException if k is negative
+     */
+    public static int levenshtein(String a, String b, int k) {
+        return distance(a, b, k, false);
+    }
+
+    /**
+     * Returns the optimal string alignment (restricted Damerau-Levenshtein)
+     * distance, which also counts swapping two adjacent characters as one edit.
+     * @param a one string
+     * @param b the other string
+     * @param k the bound
+     * @return the distance, or k+1 if it exceeds k
+     * @throws IllegalArgumentException if k is negative
+     */
+    public static int damerau(String a, String b, int k) {
+        return distance(a, b, k, true);
+    }
+
+    private static int distance(String a, String b, int k, boolean transpose) {
+        if (k<0) {
+            throw new IllegalArgumentException("negative edit distance bound: "+k);
+        }
+        if (a.length()>b.length()) {
+            // keep the pattern (a) the shorter of the two
+            String t = a; a = b; b = t;
+        }
+        int m = a.length();
+        int n = b.length();
+        if (n-m>k) {
+            return k+1;
+        }
+        if (m==0) {
+            return n;
+        }
+        return m<=64 ? bitParallel(a, b, k, transpose) : matrix(a, b, k, transpose);
+    }
+
+    private static int bitParallel(String a, String b, int k, boolean transpose) {
+        int    m    = a.length();
+        int    n    = b.length();
+        long[] peq  = new long[128];
+        long   high = 1L<<(m-1);
+        for (int i=0; i<m; i++) {
+            char c = a.charAt(i);
+            if (c<128) {
+                peq[c] |= 1L<<i;
+            }
+        }
+        long vp    = -1L;
+        long vn    = 0;
+        long d0    = 0;
+        long eqPrev = 0;
+        int  score = m;
+        for (int j=0; j<n; j++) {
+            char c  = b.charAt(j);
+            long eq = c<128 ? peq[c] : eqOf(a, c);
+            long d  = (((eq & vp) + vp) ^ vp) | eq | vn;
+            if (transpose) {
+                d |= ((~d0 & eq) << 1) & eqPrev;
+            }
+            long hp = vn | ~(d | vp);
+            long hn = vp & d;
+            if ((hp & high) != 0) {
+                score++;
+            } else if ((hn & high) != 0) {
+                score--;
+            }
+            // each remaining column can lower the score by at most one
+            if (score-(n-j-1)>k) {
+                return k+1;
+            }
+            hp = (hp<<1) | 1;
+            hn = hn<<1;
+            vp = hn | ~(d | hp);
+            vn = hp & d;
+            d0     = d;
+            eqPrev = eq;
+        }
+        return score>k ? k+1 : score;
+    }
+
+    private static long eqOf(String a, char c) {
+        long eq = 0;
+        for (int i=a.indexOf(c); i>=0; i=a.indexOf(c, i+1)) {
+            eq |= 1L<<i;
+        }
+        return eq;
+    }
+
+    private static int matrix(String a, String b, int k, boolean transpose) {
+        int   m     = a.length();
+        int   n     = b.length();
+        int[] prev2 = new int[m+1];
+        int[] prev  = new int[m+1];
+        int[] row   = new int[m+1];
+        for (int i=0; i<=m; i++) {
+            prev[i] = i;
+        }
+        for (int j=1; j<=n; j++) {
+            char c   = b.charAt(j-1);
+            int  min = row[0] = j;
+            for (int i=1; i<=m; i++) {
+                int cost = a.charAt(i-1)==c ? 0 : 1;
+                int d    = Math.min(Math.min(row[i-1]+1, prev[i]+1), prev[i-1]+cost);
+                if (transpose && i>1 && j>1 && a.charAt(i-1)==b.charAt(j-2) && a.charAt(i-2)==c) {
+                    d = Math.min(d, prev2[i-2]+1);
+                }
+                row[i] = d;
+                min    = Math.min(min, d);
+            }
+            if (min>k) {
+                return k+1;
+            }
+            int[] t = prev2; prev2 = prev; prev = row; row = t;
+        }
+        return prev[m]>k ? k+1 : prev[m];
+    }
+}
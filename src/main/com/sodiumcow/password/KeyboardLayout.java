@@ -0,0 +1,98 @@
+package com.sodiumcow.password;
+
+import java.util.Arrays;
+
+/**
+ * Key adjacency for a physical keyboard layout, compiled into lookup arrays:
+ * a {@code byte[128]} from ASCII character to key number (shifted and
+ * unshifted characters share a key) and one {@code long} adjacency bitmask
+ * per key.  A layout has at most 64 keys.
+ */
+public class KeyboardLayout {
+
+    /**
+     * US QWERTY.  Row offsets are in quarter key widths, reflecting the
+     * widths of the Tab, Caps Lock and Shift keys.
+     */
+    static final String[] US_QWERTY_ROWS    = {"`1234567890-=", "qwertyuiop[]\\", "asdfghjkl;'", "zxcvbnm,./"};
+    static final String[] US_QWERTY_SHIFTED = {"~!@#$%^&*()_+", "QWERTYUIOP{}|", "ASDFGHJKL:\"", "ZXCVBNM<>?"};
+    static final int[]    US_QWERTY_OFFSETS = {0,               6,               7,             9};
+
+    /**
+     * US QWERTY, loaded from the tables prebuilt from the rows above.
+     */
+    public static final KeyboardLayout US_QWERTY = new KeyboardLayout(CharacterTables.US_QWERTY_KEYS,
+                                                                      CharacterTables.US_QWERTY_ADJACENCY);
+
+    final byte[] keys      = new byte[128];
+    final long[] adjacency;
+
+    /**
+     * Compiles a layout.  Keys in adjacent rows are adjacent when their
+     * positions are less than one key width (4 quarters) apart.
+     * @param rows the unshifted characters of each row, left to right
+     * @param shifted the shifted characters of each row, parallel to rows
+     * @param offsets the left offset of each row in quarter key widths
+     */
+    public KeyboardLayout(String[] rows, String[] shifted, int[] offsets) {
+        Arrays.fill(keys, (byte)-1);
+        int   n        = 0;
+        int[] row      = new int[64];
+        int[] position = new int[64];
+        for (int r=0; r<rows.length; r++) {
+            for (int i=0; i<rows[r].length(); i++) {
+                if (n==64) {
+                    throw new IllegalArgumentException("more than 64 keys");
+                }
+                keys[rows[r].charAt(i)]    = (byte)n;
+                keys[shifted[r].charAt(i)] = (byte)n;
+                row[n]      = r;
+                position[n] = offsets[r]+4*i;
+                n++;
+            }
+        }
+        adjacency = new long[n];
+        for (int a=0; a<n; a++) {
+            for (int b=0; b<n; b++) {
+                int dr = Math.abs(row[a]-row[b]);
+                int dx = Math.abs(position[a]-position[b]);
+                if (a!=b && (dr==0 && dx==4 || dr==1 && dx<4)) {
+                    adjacency[a] |= 1L<<b;
+                }
+            }
+        }
+    }
+
+    /**
+     * Loads a prebuilt layout.
+     * @param keys the key number of each ASCII character, offset by '0'
+     * @param adjacency the adjacency bitmask of each key
+     */
+    KeyboardLayout(String keys, long[] adjacency) {
+        for (int c=0; c<this.keys.length; c++) {
+            this.keys[c] = (byte)(keys.charAt(c)-'0');
+        }
+        this.adjacency = adjacency;
+    }
+
+    /**
+     * Returns the key number for a character.
+     * @param c the character
+     * @return the key number, or -1 if it is not on the keyboard
+     */
+    public int key(char c) {
+        return c<128 ? keys[c] : -1;
+    }
+
+    /**
+     * Returns true if two characters are on neighboring keys.
+     * @param a one character
+     * @param b the other character
+     * @return true if adjacent
+     */
+    public boolean adjacent(char a, char b) {
+        int ka = key(a);
+        int kb = key(b);
+        return ka>=0 && kb>=0 && (adjacency[ka] & 1L<<kb) != 0;
+    }
+}
@@ -0,0 +1,399 @@
+package com.sodiumcow.password;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Asynchronous audit sink for password policy decisions.  Callers
+ * {@link #record} an {@link Event} (user, policy fingerprint, violation
+ * bitmask and timestamp -- never the password) onto a bounded lock-free
+ * ring buffer, and a single background thread drains the buffer in batches
+ * to a set of rotating binary files in a directory.  Use
+ * {@link PasswordAuditReader} to read the files back.
+ * <p>
+ * File format (all values big-endian, as written by {@link DataOutputStream}):
+ * <pre>
+ *    header: int MAGIC, short VERSION
+ *    record: long timestamp, long policy, int violations, UTF user
+ * </pre>
+ */
+public class PasswordAuditLog implements Closeable {
+
+    public static final int    MAGIC   = 0x50574155; // "PWAU"
+    public static final short  VERSION = 1;
+    public static final String SUFFIX  = ".pwa";
+
+    /**
+     * What {@link PasswordAuditLog#record} does when the ring buffer is full.
+     */
+    public enum Backpressure {
+        /** wait for the writer to make room */
+        BLOCK,
+        /** discard the new event, counting it in {@link PasswordAuditLog#getDropped} */
+        DROP,
+        /** throw an IllegalStateException */
+        REJECT;
+    }
+
+    /**
+     * A single audit record.  The violations are a bitmask of constraint
+     * ordinals, see {@link PasswordAuditLog#mask(Set)}.
+     */
+    public static class Event {
+        public final long   timestamp;
+        public final String user;
+        public final long   policy;
+        public final int    violations;
+
+        public Event(long timestamp, String user, long policy, int violations) {
+            this.timestamp  = timestamp;
+            this.user       = user==null ? "" : user;
+            this.policy     = policy;
+            this.violations = violations;
+        }
+
+        @Override
+        public String toString() {
+            return timestamp+" "+user+" "+Long.toHexString(policy)+" "+Integer.toHexString(violations);
+        }
+    }
+
+    /**
+     * Bounded multi-producer single-consumer ring buffer.  Each slot carries
+     * a sequence number: a producer may claim slot {@code pos} when its
+     * sequence equals {@code pos}, and the consumer may take it when the
+     * sequence equals {@code pos+1}.
+     */
+    private static class Ring {
+        private final Event[]         slots;
+        private final AtomicLongArray sequences;
+        private final int             mask;
+        private final AtomicLong      tail = new AtomicLong();
+        private       long            head = 0; // consumer thread only
+
+        Ring(int capacity) {
+            // a power of 2, and at least 2: a full slot's sequence must differ from its next claim
+            int size = capacity<=2 ? 2 : Integer.highestOneBit(capacity-1)<<1;
+            slots     = new Event[size];
+            sequences = new AtomicLongArray(size);
+            mask      = size-1;
+            for (int i=0; i<size; i++) {
+                sequences.set(i, i);
+            }
+        }
+
+        boolean offer(Event e) {
+            while (true) {
+                long pos = tail.get();
+                int  idx = (int)pos & mask;
+                long dif = sequences.get(idx) - pos;
+                if (dif==0) {
+                    if (tail.compareAndSet(pos, pos+1)) {
+                        slots[idx] = e;
+                        sequences.lazySet(idx, pos+1);
+                        return true;
+                    }
+                } else if (dif<0) {
+                    return false; // full
+                }
+            }
+        }
+
+        Event poll() {
+            int idx = (int)head & mask;
+            if (sequences.get(idx)!=head+1) {
+                return null; // empty, or producer not done publishing
+            }
+            Event e = slots[idx];
+            slots[idx] = null;
+            sequences.lazySet(idx, head+slots.length);
+            head++;
+            return e;
+        }
+    }
+
+    private final File          dir;
+    private final String        prefix;
+    private final long          maxFileBytes;
+    private final int           maxFiles;
+    private final int           batchSize;
+    private final Backpressure  backpressure;
+    private final Ring          ring;
+    private final AtomicLong    dropped   = new AtomicLong();
+    private final AtomicInteger recording = new AtomicInteger(); // record calls in progress
+    private final Thread        writer;
+    final Object                draining  = new Object(); // held by the writer for each batch
+
+    private volatile boolean     running   = true;  // accepting events
+    private volatile boolean     stopping  = false; // every accepted event is queued
+    private volatile IOException lastError = null;
+
+    // writer thread state
+    private DataOutputStream out      = null;
+    private long             written  = 0;
+    private long             sequence = 0;
+
+    /**
+     * Opens an audit log in {@code dir}, continuing the file numbering of any
+     * {@code prefix.NNNNNNNN.pwa} files already there.
+     * @param dir the directory for the log files (created if needed)
+     * @param prefix the log file name prefix
+     * @param capacity the ring buffer capacity (rounded up to a power of 2, at least 2)
+     * @param batchSize the maximum number of events written between flushes
+     * @param maxFileBytes rotate to a new file once the current one reaches this size
+     * @param maxFiles the number of files to retain, or 0 to retain all
+     * @param backpressure what to do when the ring buffer is full
+     * @throws IOException if the directory can not be created
+     */
+    public PasswordAuditLog(File dir, String prefix, int capacity, int batchSize,
+                            long maxFileBytes, int maxFiles, Backpressure backpressure)
+    throws IOException {
+        if (capacity<1 || capacity>1<<30 || batchSize<1 || maxFileBytes<1 || maxFiles<0 || backpressure==null) {
+            throw new IllegalArgumentException("invalid audit log configuration");
+        }
+        if (!dir.isDirectory() && !dir.mkdirs()) {
+            throw new IOException("can not create audit directory "+dir);
+        }
+        this.dir          = dir;
+        this.prefix       = prefix;
+        this.maxFileBytes = maxFileBytes;
+        this.maxFiles     = maxFiles;
+        this.batchSize    = batchSize;
+        this.backpressure = backpressure;
+        this.ring         = new Ring(capacity);
+        File[] existing = files(dir, prefix);
+        if (existing.length>0) {
+            sequence = sequenceOf(existing[existing.length-1], prefix)+1;
+        }
+        writer = new Thread(new Runnable() {
+            public void run() {
+                drain();
+            }
+        }, "password-audit-"+prefix);
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    /**
+     * Opens an audit log with a 64K event buffer written in batches of 1K to
+     * 16MB files, retaining all files and blocking when the buffer is full.
+     * @param dir the directory for the log files
+     * @throws IOException if the directory can not be created
+     */
+    public PasswordAuditLog(File dir) throws IOException {
+        this(dir, "audit", 65536, 1024, 16L<<20, 0, Backpressure.BLOCK);
+    }
+
+    /**
+     * Returns the bitmask of a set of constraints, one bit per ordinal.
+     * @param violations the violated constraints
+     * @return the bitmask
+     */
+    public static <E extends Enum<E>> int mask(Set<E> violations) {
+        int mask = 0;
+        for (E e : violations) {
+            mask |= 1<<e.ordinal();
+        }
+        return mask;
+    }
+
+    /**
+     * Records the outcome of {@link PasswordRules#getContentViolations}.
+     * @param user the username
+     * @param rules the rules the password was validated against
+     * @param violations the violated constraints
+     * @return false if the event was dropped
+     */
+    public boolean record(String user, PasswordRules rules, Set<PasswordRules.PasswordConstraint> violations) {
+        return record(new Event(System.currentTimeMillis(), user, rules.getFingerprint(), mask(violations)));
+    }
+
+    /**
+     * Queues an event for writing, applying the {@link Backpressure} policy if
+     * the buffer is full.
+     * @param event the event
+     * @return false if the event was dropped
+     * @throws IllegalStateException if the log is closed, or full under REJECT
+     */
+    public boolean record(Event event) {
+        recording.incrementAndGet(); // close waits for this before the writer's last drain
+        try {
+            return offer(event);
+        } finally {
+            recording.decrementAndGet();
+        }
+    }
+
+    private boolean offer(Event event) {
+        if (!running) {
+            throw new IllegalStateException("audit log closed");
+        }
+        while (!ring.offer(event)) {
+            switch (backpressure) {
+            case DROP:
+                dropped.incrementAndGet();
+                return false;
+            case REJECT:
+                throw new IllegalStateException("audit log full");
+            case BLOCK:
+                LockSupport.unpark(writer);
+                LockSupport.parkNanos(TimeUnit.MICROSECONDS.toNanos(50));
+                if (!running) {
+                    throw new IllegalStateException("audit log closed");
+                }
+                break;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return the number of events discarded under {@link Backpressure#DROP}
+     */
+    public long getDropped() {
+        return dropped.get();
+    }
+
+    /**
+     * @return the last I/O error encountered by the writer thread, or null
+     */
+    public IOException getLastError() {
+        return lastError;
+    }
+
+    /**
+     * Stops accepting events, writes everything already accepted (including
+     * by {@code record} calls in progress) and closes the current file.
+     * @throws IOException if the writer thread encountered an error
+     */
+    public void close() throws IOException {
+        running = false;
+        while (recording.get()!=0) {
+            Thread.yield(); // a record that saw running is still queuing its event
+        }
+        stopping = true;
+        LockSupport.unpark(writer);
+        try {
+            writer.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        if (lastError!=null) {
+            throw lastError;
+        }
+    }
+
+    private void drain() {
+        boolean more = true;
+        while (more) {
+            boolean last = stopping;
+            int     n    = 0;
+            try {
+                synchronized (draining) {
+                    Event e;
+                    while (n<batchSize && (e=ring.poll())!=null) {
+                        write(e);
+                        n++;
+                    }
+                    if (out!=null) {
+                        out.flush();
+                    }
+                }
+            } catch (IOException ioe) {
+                lastError = ioe;
+                closeFile();
+            }
+            if (n==0) {
+                if (last) {
+                    more = false;
+                } else {
+                    LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(10));
+                }
+            }
+        }
+        closeFile();
+    }
+
+    private void write(Event e) throws IOException {
+        if (out==null || written>=maxFileBytes) {
+            rotate();
+        }
+        int before = out.size();
+        out.writeLong(e.timestamp);
+        out.writeLong(e.policy);
+        out.writeInt(e.violations);
+        out.writeUTF(e.user);
+        written += out.size()-before;
+    }
+
+    private void rotate() throws IOException {
+        closeFile();
+        File f = new File(dir, String.format("%s.%08d%s", prefix, sequence++, SUFFIX));
+        out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(f), 65536));
+        out.writeInt(MAGIC);
+        out.writeShort(VERSION);
+        written = out.size();
+        if (maxFiles>0) {
+            File[] all = files(dir, prefix);
+            for (int i=0; i<all.length-maxFiles; i++) {
+                all[i].delete();
+            }
+        }
+    }
+
+    private void closeFile() {
+        if (out!=null) {
+            try {
+                out.close();
+            } catch (IOException e) {
+                lastError = e;
+            }
+            out = null;
+        }
+    }
+
+    /**
+     * Lists the audit files for {@code prefix} in {@code dir}, oldest first.
+     * @param dir the audit directory
+     * @param prefix the log file name prefix
+     * @return the files, possibly empty
+     */
+    public static File[] files(File dir, final String prefix) {
+        File[] files = dir.listFiles(new FilenameFilter() {
+            public boolean accept(File d, String name) {
+                if (!name.startsWith(prefix+".") || !name.endsWith(SUFFIX) ||
+                    name.length()!=prefix.length()+9+SUFFIX.length()) {
+                    return false;
+                }
+                for (int i=prefix.length()+1; i<prefix.length()+9; i++) {
+                    if (name.charAt(i)<'0' || name.charAt(i)>'9') {
+                        return false; // not ours, e.g. prefix.backup01.pwa
+                    }
+                }
+                return true;
+            }
+        });
+        if (files==null) {
+            return new File[0];
+        }
+        Arrays.sort(files); // fixed width sequence numbers sort by name
+        return files;
+    }
+
+    private static long sequenceOf(File f, String prefix) {
+        String name = f.getName();
+        return Long.parseLong(name.substring(prefix.length()+1, name.length()-SUFFIX.length()));
+    }
+}
@@ -0,0 +1,119 @@
+package com.sodiumcow.password;
+
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.text.SimpleDateFormat;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.EnumSet;
+import java.util.TimeZone;
+
+import com.sodiumcow.password.PasswordAuditLog.Event;
+import com.sodiumcow.password.PasswordRules.PasswordConstraint;
+
+/**
+ * Reads the binary files written by {@link PasswordAuditLog}.  Also usable
+ * from the command line:
+ * <pre>
+ *    java com.sodiumcow.password.PasswordAuditReader file-or-directory...
+ * </pre>
+ * which prints one line per record.
+ */
+public class PasswordAuditReader implements Closeable {
+
+    private final DataInputStream in;
+
+    /**
+     * Opens an audit file and checks its header.
+     * @param file the file to read
+     * @throws IOException if the file can not be read or is not an audit file
+     */
+    public PasswordAuditReader(File file) throws IOException {
+        in = new DataInputStream(new BufferedInputStream(new FileInputStream(file), 65536));
+        try {
+            if (in.readInt()!=PasswordAuditLog.MAGIC) {
+                throw new IOException("not an audit file: "+file);
+            }
+            short version = in.readShort();
+            if (version!=PasswordAuditLog.VERSION) {
+                throw new IOException("unsupported audit file version "+version+": "+file);
+            }
+        } catch (IOException e) {
+            in.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Reads the next record.
+     * @return the next Event, or null at end of file
+     * @throws IOException on a read error or a truncated record
+     */
+    public Event read() throws IOException {
+        long timestamp;
+        try {
+            timestamp = in.readLong();
+        } catch (EOFException e) {
+            return null;
+        }
+        long   policy     = in.readLong();
+        int    violations = in.readInt();
+        String user       = in.readUTF();
+        return new Event(timestamp, user, policy, violations);
+    }
+
+    public void close() throws IOException {
+        in.close();
+    }
+
+    /**
+     * Decodes a violation bitmask into {@link PasswordRules.PasswordConstraint}s.
+     * @param violations the bitmask
+     * @return the set of constraints
+     */
+    public static EnumSet<PasswordConstraint> violations(int violations) {
+        EnumSet<PasswordConstraint> set = EnumSet.noneOf(PasswordConstraint.class);
+        for (PasswordConstraint c : PasswordConstraint.values()) {
+            if ((violations & 1<<c.ordinal()) != 0) {
+                set.add(c);
+            }
+        }
+        return set;
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length==0) {
+            System.err.println("usage: PasswordAuditReader file-or-directory...");
+            System.exit(1);
+        }
+        SimpleDateFormat iso = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss.SSS'Z'");
+        iso.setTimeZone(TimeZone.getTimeZone("UTC"));
+        for (String arg : args) {
+            File   f     = new File(arg);
+            File[] files = f.isDirectory() ? f.listFiles() : new File[] {f};
+            Arrays.sort(files);
+            for (File file : files) {
+                if (f.isDirectory() && !file.getName().endsWith(PasswordAuditLog.SUFFIX)) {
+                    continue;
+                }
+                PasswordAuditReader reader = new PasswordAuditReader(file);
+                try {
+                    Event e;
+                    while ((e=reader.read())!=null) {
+                        System.out.println(iso.format(new Date(e.timestamp))+" "+
+                                           e.user+" "+
+                                           String.format("%016x", e.policy)+" "+
+                                           violations(e.violations));
+                    }
+                } finally {
+                    reader.close();
+                }
+            }
+        }
+    }
+}
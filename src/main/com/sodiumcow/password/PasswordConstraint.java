@@ -1,10 +1,7 @@
 package com.sodiumcow.password;
 
 import java.util.EnumMap;
-import java.util.HashMap;
 import java.util.Map;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
 
 import com.sodiumcow.password.PasswordRules.PasswordMatcher;
 import com.sodiumcow.password.PasswordRules.PasswordMatcher.Result;
@@ -12,16 +9,16 @@ import com.sodiumcow.password.PasswordRules.PasswordMatcher.Result;
 public enum PasswordConstraint {
     LENGTH_CONSTRAINT (Type.MIN, "length") {
         @Override
-        public boolean validate(Map<PasswordConstraint,Integer> constraints, String password, Map<CharacterType,Integer>counts, String user, PasswordMatcher matcher) {
+        public boolean validate(Map<PasswordConstraint,Integer> constraints, String password, CharacterCounts counts, String user, PasswordMatcher matcher, String current) {
             return password.length()>=constraints.get(this);
         }
     },
     UPPERCASE_CONSTRAINT (Type.MIN, "upper") {
         @Override
-        public boolean validate(Map<PasswordConstraint,Integer> constraints, String password, Map<CharacterType,Integer>counts, String user, PasswordMatcher matcher) {
+        public boolean validate(Map<PasswordConstraint,Integer> constraints, String password, CharacterCounts counts, String user, PasswordMatcher matcher, String current) {
             synchronized (counts) {
                 if (counts.isEmpty()) {
-                    counts.putAll(CharacterType.of(password));
+                    counts.count(password);
                 }
             }
             return counts.get(CharacterType.UPPER)>=constraints.get(this);
@@ -29,10 +26,10 @@ public enum PasswordConstraint {
     },
     LOWERCASE_CONSTRAINT (Type.MIN, "lower") {
         @Override
-        public boolean validate(Map<PasswordConstraint,Integer> constraints, String password, Map<CharacterType,Integer>counts, String user, PasswordMatcher matcher) {
+        public boolean validate(Map<PasswordConstraint,Integer> constraints, String password, CharacterCounts counts, String user, PasswordMatcher matcher, String current) {
             synchronized (counts) {
                 if (counts.isEmpty()) {
-                    counts.putAll(CharacterType.of(password));
+                    counts.count(password);
                 }
             }
             return counts.get(CharacterType.LOWER)>=constraints.get(this);
@@ -40,10 +37,10 @@ public enum PasswordConstraint {
     },
     DIGIT_CONSTRAINT (Type.MIN, "digit") {
         @Override
-        public boolean validate(Map<PasswordConstraint,Integer> constraints, String password, Map<CharacterType,Integer>counts, String user, PasswordMatcher matcher) {
+        public boolean validate(Map<PasswordConstraint,Integer> constraints, String password, CharacterCounts counts, String user, PasswordMatcher matcher, String current) {
             synchronized (counts) {
                 if (counts.isEmpty()) {
-                    counts.putAll(CharacterType.of(password));
+                    counts.count(password);
                 }
             }
             return counts.get(CharacterType.DIGIT)>=constraints.get(this);
@@ -51,10 +48,10 @@ public enum PasswordConstraint {
     },
     SPECIAL_CONSTRAINT (Type.MIN, "special") {
         @Override
-        public boolean validate(Map<PasswordConstraint,Integer> constraints, String password, Map<CharacterType,Integer>counts, String user, PasswordMatcher matcher) {
+        public boolean validate(Map<PasswordConstraint,Integer> constraints, String password, CharacterCounts counts, String user, PasswordMatcher matcher, String current) {
             synchronized (counts) {
                 if (counts.isEmpty()) {
-                    counts.putAll(CharacterType.of(password));
+                    counts.count(password);
                 }
             }
             return counts.get(CharacterType.SPECIAL)>=constraints.get(this);
@@ -62,7 +59,7 @@ public enum PasswordConstraint {
     },
     REUSE_CONSTRAINT (Type.MIN, "repeat") {
         @Override
-        public boolean validate(Map<PasswordConstraint,Integer> constraints, String password, Map<CharacterType,Integer>counts, String user, PasswordMatcher matcher) {
+        public boolean validate(Map<PasswordConstraint,Integer> constraints, String password, CharacterCounts counts, String user, PasswordMatcher matcher, String current) {
             Result result=Result.NO_GENERATION;
             int    minUnique = constraints.get(this);
             for (int g=0;
@@ -73,24 +70,77 @@ public enum PasswordConstraint {
     },
     AGE_CONSTRAINT (Type.MAX, "age") {
         @Override
-        public boolean validate(Map<PasswordConstraint,Integer> constraints, String password, Map<CharacterType,Integer>counts, String user, PasswordMatcher matcher) {
+        public boolean validate(Map<PasswordConstraint,Integer> constraints, String password, CharacterCounts counts, String user, PasswordMatcher matcher, String current) {
             return true;  // AGE_CONSTRAINT does not apply in the validation context
         }
     },
     USERSUBSTRING_CONSTRAINT (Type.PROHIBIT, "user") {
         @Override
-        public boolean validate(Map<PasswordConstraint,Integer> constraints, String password, Map<CharacterType,Integer>counts, String user, PasswordMatcher matcher) {
+        public boolean validate(Map<PasswordConstraint,Integer> constraints, String password, CharacterCounts counts, String user, PasswordMatcher matcher, String current) {
             return !enabled(constraints.get(this)) ||
                    password.toLowerCase().indexOf(user.toLowerCase()) < 0;
         }
+    },
+    SIMILAR_CONSTRAINT (Type.MAX, "similar") {
+        @Override
+        public boolean validate(Map<PasswordConstraint,Integer> constraints, String password, CharacterCounts counts, String user, PasswordMatcher matcher, String current) {
+            int maxDistance = constraints.get(this);
+            return !enabled(maxDistance) || current==null ||
+                   EditDistance.damerau(password, current, maxDistance) > maxDistance;
+        }
+    },
+    REPEATED_CONSTRAINT (Type.MAX, "maxrepeat") {
+        @Override
+        public boolean validate(Map<PasswordConstraint,Integer> constraints, String password, CharacterCounts counts, String user, PasswordMatcher matcher, String current) {
+            synchronized (counts) {
+                if (counts.isEmpty()) {
+                    counts.count(password);
+                }
+            }
+            int max = constraints.get(this);
+            return !enabled(max) || counts.runs.getMaxRepeat()<=max;
+        }
+    },
+    SEQUENCE_CONSTRAINT (Type.MAX, "maxsequence") {
+        @Override
+        public boolean validate(Map<PasswordConstraint,Integer> constraints, String password, CharacterCounts counts, String user, PasswordMatcher matcher, String current) {
+            synchronized (counts) {
+                if (counts.isEmpty()) {
+                    counts.count(password);
+                }
+            }
+            int max = constraints.get(this);
+            return !enabled(max) || counts.runs.getMaxSequence()<=max;
+        }
+    },
+    KEYWALK_CONSTRAINT (Type.MAX, "keywalk") {
+        @Override
+        public boolean validate(Map<PasswordConstraint,Integer> constraints, String password, CharacterCounts counts, String user, PasswordMatcher matcher, String current) {
+            synchronized (counts) {
+                if (counts.isEmpty()) {
+                    counts.count(password);
+                }
+            }
+            int max = constraints.get(this);
+            return !enabled(max) || counts.runs.getMaxKeywalk()<=max;
+        }
+    },
+    DICTWORD_CONSTRAINT (Type.PROHIBIT_MIN, "dictword") {
+        @Override
+        public boolean validate(Map<PasswordConstraint,Integer> constraints, String password, CharacterCounts counts, String user, PasswordMatcher matcher, String current) {
+            int                minLength  = constraints.get(this);
+            PasswordDictionary dictionary = PasswordDictionary.getDefault();
+            return !enabled(minLength) || dictionary==null ||
+                   !dictionary.containsWord(password, minLength);
+        }
     };
 
-    public enum Type { MIN, MAX, REQUIRE, PROHIBIT; }
+    public enum Type { MIN, MAX, REQUIRE, PROHIBIT, PROHIBIT_MIN; }
 
     public static final int MIN_DEFAULT = 0;
     public static final int MAX_DEFAULT = -1;
     public static final int ENABLED     = 1; // for REQUIRE/PROHIBIT
-    public static final int DISABLED    = 0; // default for REQUIRE/PROHIBIT
+    public static final int DISABLED    = 0; // default for REQUIRE/PROHIBIT/PROHIBIT_MIN
 
     public final Type    type;
     public final String  id;
@@ -102,28 +152,31 @@ public enum PasswordConstraint {
 
     public abstract boolean validate(Map<PasswordConstraint,Integer> constraints,
                                      String                          password,
-                                     Map<CharacterType,Integer>      counts,
+                                     CharacterCounts                 counts,
                                      String                          user,
-                                     PasswordMatcher                 matcher);
+                                     PasswordMatcher                 matcher,
+                                     String                          current);
 
-    private static final HashMap<String,PasswordConstraint> index = new HashMap<String,PasswordConstraint>();
-    static {
-        for (PasswordConstraint c : PasswordConstraint.values()) {
-            index.put(c.id.toLowerCase(), c);
-        }
-    }
+    private static final PasswordConstraint[] VALUES = values();
 
     public static PasswordConstraint of(String id) {
-        return index.get(id.toLowerCase());
+        // a handful of ids: a scan beats building (and hashing into) a map
+        for (PasswordConstraint c : VALUES) {
+            if (c.id.equalsIgnoreCase(id)) {
+                return c;
+            }
+        }
+        return null;
     }
 
     public int getDefault() {
         switch (type) {
-        case MIN:      return MIN_DEFAULT;
-        case MAX:      return MAX_DEFAULT;
+        case MIN:          return MIN_DEFAULT;
+        case MAX:          return MAX_DEFAULT;
         case REQUIRE:
-        case PROHIBIT: return DISABLED;
-        default:       return 0; // can't happen, but shuts up the compiler
+        case PROHIBIT:
+        case PROHIBIT_MIN: return DISABLED;
+        default:           return 0; // can't happen, but shuts up the compiler
         }
     }
 
@@ -134,29 +187,27 @@ public enum PasswordConstraint {
     public StringBuffer append(StringBuffer sb, int value) {
         if (enabled(value)) {
             switch (type) {
-            case MIN:      sb.append(id).append(">=").append(value); break;
-            case MAX:      sb.append(id).append("<=").append(value); break;
-            case REQUIRE:  sb.append(id);                            break;
-            case PROHIBIT: sb.append('!').append(id);                break;
+            case MIN:          sb.append(id).append(">=").append(value);            break;
+            case MAX:          sb.append(id).append("<=").append(value);            break;
+            case REQUIRE:      sb.append(id);                                       break;
+            case PROHIBIT:     sb.append('!').append(id);                           break;
+            case PROHIBIT_MIN: sb.append('!').append(id).append(">=").append(value); break;
             }
         }
         return sb;
     }
 
-    private static final Pattern CLAUSE =
-        Pattern.compile("(?i)\\s*(!)?\\s*(\\w+)\\s*(?:([><])=\\s*(\\d+)\\s*)?");
     public static EnumMap<PasswordConstraint,Integer> parse (String spec) {
         EnumMap<PasswordConstraint,Integer>map = new EnumMap<PasswordConstraint,Integer>(PasswordConstraint.class);
         if (spec!=null) {
-            Matcher m   = CLAUSE.matcher(spec);
+            Clause  m   = new Clause(spec, false);
             int     i   = 0;
             String  err = null;
-            while (err==null && m.find() && m.start()==i) {
-                boolean            bang       = m.group(1) != null;
-                PasswordConstraint constraint = of(m.group(2));
-                boolean            limited    = m.group(3) != null;
-                char               ineq       = limited ? m.group(3).charAt(0) : 'x';
-                int                limit      = limited ? Integer.valueOf(m.group(4)) : -1;
+            while (err==null && m.match(i)) {
+                boolean            bang       = m.bang;
+                PasswordConstraint constraint = of(m.id);
+                char               ineq       = m.ineq;
+                int                limit      = m.limit;
                 if (constraint==null) {
                     err = "recognized token";
                 } else {
@@ -185,9 +236,15 @@ public enum PasswordConstraint {
                         }
                         map.put(constraint, ENABLED);
                         break;
+                    case PROHIBIT_MIN:
+                        if (!bang || ineq!='>') {
+                            err = "!"+constraint.id+">=number expected";
+                        }
+                        map.put(constraint, limit);
+                        break;
                     }
                 }
-                i = m.end();
+                i = m.end;
             }
             if (i<spec.length()) {
                 // we didn't make it cleanly to the end
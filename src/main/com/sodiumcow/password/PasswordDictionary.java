@@ -0,0 +1,361 @@
+package com.sodiumcow.password;
+
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+
+/**
+ * A dictionary of words compiled into a minimized DAWG (directed acyclic
+ * word graph), used to find dictionary words embedded in passwords after
+ * leetspeak folding ({@code Tr0ub4dor} contains {@code troubador}).
+ * <p>
+ * Words are reduced to the letters a-z, so each arc of the graph packs into
+ * a single int:
+ * <pre>
+ *    bits 31-7  index of the target state's first arc (0: no arcs)
+ *    bits  6-2  letter (0-25)
+ *    bit   1    final: a word ends at the target
+ *    bit   0    last arc of this state
+ * </pre>
+ * Element 0 holds the index of the root state's first arc.  The arcs are
+ * held in a flat {@code int[]} or memory-mapped from a file produced
+ * offline by
+ * <pre>
+ *    java com.sodiumcow.password.PasswordDictionary words.txt dictionary.dawg
+ * </pre>
+ */
+public class PasswordDictionary {
+
+    public static final int MAGIC   = 0x50574447; // "PWDG"
+    public static final int VERSION = 1;
+
+    private static final int LAST   = 1;
+    private static final int FINAL  = 2;
+
+    /**
+     * Letters (as a bitmask of a-z) each ASCII character folds to.  Letters
+     * fold to themselves regardless of case; ambiguous leetspeak like
+     * {@code 1} folds to both i and l.
+     */
+    private static final int[] FOLD = new int[128];
+    static {
+        for (char c='a'; c<='z'; c++) {
+            FOLD[c] = FOLD[Character.toUpperCase(c)] = 1<<(c-'a');
+        }
+        String[] leet = {"0o", "1il", "!i", "|l", "2z", "3e", "4a", "@a", "5s", "$s",
+                         "6g", "7t", "+t", "8b", "9g"};
+        for (String l : leet) {
+            for (int i=1; i<l.length(); i++) {
+                FOLD[l.charAt(0)] |= 1<<(l.charAt(i)-'a');
+            }
+        }
+    }
+
+    private static volatile PasswordDictionary defaultDictionary = null;
+
+    /**
+     * @return the dictionary used when none is set on the rules, or null
+     */
+    public static PasswordDictionary getDefault() {
+        return defaultDictionary;
+    }
+
+    /**
+     * Sets the dictionary used by the {@link PasswordConstraint} grammar and by
+     * {@link PasswordRules} without a dictionary of their own.
+     * @param dictionary the dictionary, or null to disable dictionary checks
+     */
+    public static void setDefault(PasswordDictionary dictionary) {
+        defaultDictionary = dictionary;
+    }
+
+    private final IntBuffer arcs;
+    private final int       root;
+    private volatile int    checksum = 0;
+
+    /**
+     * Wraps compiled arcs.
+     * @param arcs the arcs, as produced by {@link #compile}
+     */
+    public PasswordDictionary(IntBuffer arcs) {
+        this.arcs = arcs;
+        this.root = arcs.get(0);
+    }
+
+    /**
+     * Compiles a word list into an in-memory dictionary.
+     * @param words the words
+     * @return the dictionary
+     */
+    public static PasswordDictionary of(Iterable<String> words) {
+        return new PasswordDictionary(IntBuffer.wrap(compile(words)));
+    }
+
+    /**
+     * Memory-maps a dictionary file written by {@link #write}.
+     * @param file the file
+     * @return the dictionary
+     * @throws IOException if the file can not be mapped or is not a dictionary
+     */
+    public static PasswordDictionary load(File file) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+        try {
+            ByteBuffer map = raf.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, raf.length());
+            if (raf.length()<12 || map.getInt(0)!=MAGIC || map.getInt(4)!=VERSION) {
+                throw new IOException("not a dictionary file: "+file);
+            }
+            map.position(8);
+            return new PasswordDictionary(map.slice().asIntBuffer());
+        } finally {
+            raf.close(); // the mapping stays valid
+        }
+    }
+
+    /**
+     * Returns true if the password contains a dictionary word of at least
+     * {@code minLength} letters, starting anywhere in the password.
+     * @param password the password
+     * @param minLength the shortest word that counts
+     * @return true if a word was found
+     */
+    public boolean containsWord(String password, int minLength) {
+        int   n    = password.length();
+        int[] fold = new int[n];
+        for (int i=0; i<n; i++) {
+            char c = password.charAt(i);
+            fold[i] = c<128 ? FOLD[c] : 0;
+        }
+        for (int start=0; start+minLength<=n; start++) {
+            if (fold[start]!=0 && walk(fold, start, 1, root, minLength)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private boolean walk(int[] fold, int i, int depth, int state, int minLength) {
+        if (state==0 || i>=fold.length) {
+            return false;
+        }
+        int letters = fold[i];
+        for (int a=state; ; a++) {
+            int arc = arcs.get(a);
+            if ((letters & 1<<(arc>>>2 & 0x1f)) != 0) {
+                if ((arc & FINAL)!=0 && depth>=minLength) {
+                    return true;
+                }
+                if (walk(fold, i+1, depth+1, arc>>>7, minLength)) {
+                    return true;
+                }
+            }
+            if ((arc & LAST)!=0) {
+                return false;
+            }
+        }
+    }
+
+    /**
+     * Returns an FNV-1a checksum of the compiled arcs, computed on first use,
+     * to tell dictionaries apart in policy fingerprints.
+     * @return the checksum, never 0
+     */
+    public int getChecksum() {
+        int sum = checksum;
+        if (sum==0) {
+            sum = 0x811c9dc5;
+            for (int i=0; i<arcs.limit(); i++) {
+                sum = (sum ^ arcs.get(i)) * 0x01000193;
+            }
+            checksum = sum = sum==0 ? 1 : sum;
+        }
+        return sum;
+    }
+
+    /**
+     * A state under construction.  Once registered, states are canonical and
+     * compared by identity, so equality need only look one level deep.
+     */
+    private static class State {
+        boolean     isFinal = false;
+        char[]      labels  = new char[0];
+        State[]     targets = new State[0];
+
+        State last() {
+            return targets[targets.length-1];
+        }
+
+        State add(char label) {
+            State s = new State();
+            labels  = Arrays.copyOf(labels, labels.length+1);
+            targets = Arrays.copyOf(targets, targets.length+1);
+            labels [labels.length-1]  = label;
+            targets[targets.length-1] = s;
+            return s;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof State)) return false;
+            State s = (State)o;
+            if (isFinal!=s.isFinal || !Arrays.equals(labels, s.labels)) return false;
+            for (int i=0; i<targets.length; i++) {
+                if (targets[i]!=s.targets[i]) return false;
+            }
+            return true;
+        }
+
+        @Override
+        public int hashCode() {
+            int h = isFinal ? 1 : 0;
+            for (int i=0; i<labels.length; i++) {
+                h = 31*(31*h + labels[i]) + System.identityHashCode(targets[i]);
+            }
+            return h;
+        }
+    }
+
+    private static void replaceOrRegister(State state, Map<State,State> register) {
+        int   i     = state.targets.length-1;
+        State child = state.targets[i];
+        if (child.targets.length>0) {
+            replaceOrRegister(child, register);
+        }
+        State existing = register.get(child);
+        if (existing!=null) {
+            state.targets[i] = existing;
+        } else {
+            register.put(child, child);
+        }
+    }
+
+    /**
+     * Builds the minimal DAWG with the incremental algorithm of Daciuk et al.
+     * for sorted input, then flattens it.  Words are lowercased and any word
+     * with characters outside a-z is skipped.
+     * @param words the words, in any order
+     * @return the flattened arcs, with the root index in element 0 (0 if empty)
+     */
+    public static int[] compile(Iterable<String> words) {
+        TreeSet<String> sorted = new TreeSet<String>();
+        for (String w : words) {
+            w = w.trim().toLowerCase();
+            if (w.length()>0 && w.matches("[a-z]+")) {
+                sorted.add(w);
+            }
+        }
+        Map<State,State> register = new HashMap<State,State>();
+        State            root     = new State();
+        String           previous = "";
+        for (String word : sorted) {
+            int common = 0;
+            while (common<previous.length() && common<word.length() &&
+                   previous.charAt(common)==word.charAt(common)) {
+                common++;
+            }
+            State state = root;
+            for (int i=0; i<common; i++) {
+                state = state.last();
+            }
+            if (state.targets.length>0) {
+                replaceOrRegister(state, register);
+            }
+            for (int i=common; i<word.length(); i++) {
+                state = state.add(word.charAt(i));
+            }
+            state.isFinal = true;
+            previous = word;
+        }
+        if (root.targets.length>0) {
+            replaceOrRegister(root, register);
+        }
+
+        // flatten: assign each state with arcs a block after the root index in element 0
+        IdentityHashMap<State,Integer> index = new IdentityHashMap<State,Integer>();
+        List<State>                    order = new ArrayList<State>();
+        int                            next  = 1;
+        order.add(root);
+        index.put(root, next);
+        next += root.targets.length;
+        for (int q=0; q<order.size(); q++) {
+            for (State t : order.get(q).targets) {
+                if (t.targets.length>0 && !index.containsKey(t)) {
+                    index.put(t, next);
+                    next += t.targets.length;
+                    order.add(t);
+                }
+            }
+        }
+        if (next>=1<<25) {
+            throw new IllegalArgumentException("dictionary too large");
+        }
+        int[] arcs = new int[next];
+        arcs[0] = root.targets.length>0 ? 1 : 0;
+        for (State s : order) {
+            int base = index.get(s);
+            for (int i=0; i<s.targets.length; i++) {
+                State   t      = s.targets[i];
+                Integer target = index.get(t);
+                arcs[base+i] = (target==null ? 0 : target)<<7 |
+                               (s.labels[i]-'a')<<2 |
+                               (t.isFinal ? FINAL : 0) |
+                               (i==s.targets.length-1 ? LAST : 0);
+            }
+        }
+        return arcs;
+    }
+
+    /**
+     * Writes compiled arcs as a dictionary file for {@link #load}.
+     * @param arcs the arcs, as returned by {@link #compile}
+     * @param file the file to write
+     * @throws IOException on a write error
+     */
+    public static void write(int[] arcs, File file) throws IOException {
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file), 65536));
+        try {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            for (int arc : arcs) {
+                out.writeInt(arc);
+            }
+        } finally {
+            out.close();
+        }
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length!=2) {
+            System.err.println("usage: PasswordDictionary words.txt dictionary.dawg");
+            System.exit(1);
+        }
+        List<String>   words = new ArrayList<String>();
+        BufferedReader in    = new BufferedReader(new InputStreamReader(new FileInputStream(args[0]), "UTF-8"));
+        try {
+            String line;
+            while ((line=in.readLine())!=null) {
+                words.add(line);
+            }
+        } finally {
+            in.close();
+        }
+        int[] arcs = compile(words);
+        write(arcs, new File(args[1]));
+        System.out.println(words.size()+" words, "+(arcs.length-1)+" arcs, "+(arcs.length*4)+" bytes");
+    }
+}
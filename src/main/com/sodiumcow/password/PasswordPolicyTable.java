@@ -0,0 +1,315 @@
+package com.sodiumcow.password;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.UnsupportedEncodingException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+
+/**
+ * A table of {@link PasswordRules} indexed by tenant id, held in a
+ * memory-mapped file so that every JVM on a host shares one copy.  A
+ * single writer process publishes policies with {@link #create}; any
+ * number of readers {@link #open} the file and see updates on their next
+ * lookup, without locks and without restarting.
+ * <p>
+ * The file is a 16 byte header ({@link #MAGIC}, {@link #VERSION}, slot
+ * count, slot size) followed by one fixed-size slot per tenant:
+ * <pre>
+ *    int    sequence  odd while the writer is updating the slot
+ *    int    length    of the encoding plus 1, or 0 for no policy
+ *    byte[] encoding  the canonical {@link PasswordRules#toString} in UTF-8
+ * </pre>
+ * Each slot is a seqlock.  The writer makes the sequence odd, writes the
+ * encoding and makes it even again; a reader copies the encoding between
+ * two reads of the sequence and retries if they differ or are odd.
+ * Readers cache the parsed rules per slot and only parse again when the
+ * sequence moves.  Only the encoding is shared, so a dictionary set with
+ * {@link PasswordRules#setDictionary} is not carried: readers use the
+ * default dictionary.
+ */
+public class PasswordPolicyTable implements Closeable {
+
+    public static final int MAGIC   = 0x50575054; // "PWPT"
+    public static final int VERSION = 1;
+
+    private static final int HEADER = 16;
+    private static final int SLOT   = 8;  // sequence and length precede the encoding
+
+    /** A parsed policy and the sequence it was read at. */
+    private static class Cached {
+        final int           sequence;
+        final PasswordRules rules;
+
+        Cached(int sequence, PasswordRules rules) {
+            this.sequence = sequence;
+            this.rules    = rules;
+        }
+    }
+
+    private final RandomAccessFile raf;
+    private final MappedByteBuffer map;
+    private final FileLock         lock;      // held by the writer only
+    private final int              slots;
+    private final int              slotSize;
+    private final Cached[]         cache;     // racy but safe: Cached is immutable
+    private final int[]            stuck;     // odd sequence a slot stalled at, or 0
+
+    /**
+     * How long a reader waits on a slot left mid-update before deciding the
+     * writer died; an update normally takes microseconds.
+     */
+    public static final long STALL_MILLIS = 1000;
+
+    private static volatile int fence = 0;
+
+    /**
+     * Orders the shared memory accesses on either side of it.  A volatile
+     * write followed by a volatile read is a full fence in practice
+     * (VarHandle fences would say so directly, but need Java 9).  A volatile
+     * read alone is only an acquire, which lets earlier plain loads complete
+     * after it on weakly ordered CPUs, so readers need the full fence too;
+     * they only take it when a slot has changed, never on the cached path.
+     */
+    private static int fullFence() {
+        fence = 0;
+        return fence;
+    }
+
+    private PasswordPolicyTable(RandomAccessFile raf, MappedByteBuffer map, FileLock lock) throws IOException {
+        this.raf      = raf;
+        this.map      = map;
+        this.lock     = lock;
+        if (map.capacity()<HEADER || map.getInt(0)!=MAGIC || map.getInt(4)!=VERSION) {
+            throw new IOException("not a policy table");
+        }
+        this.slots    = map.getInt(8);
+        this.slotSize = map.getInt(12);
+        if (slots<0 || slotSize<=SLOT || slotSize%8!=0 || map.capacity()<HEADER+(long)slots*slotSize) {
+            throw new IOException("corrupt policy table header");
+        }
+        this.cache    = new Cached[slots];
+        this.stuck    = new int[slots];
+    }
+
+    /**
+     * Opens a table for writing, creating it if it does not exist.  Only
+     * one writer may have a table open at a time.
+     * @param file the file, normally on a tmpfs such as /dev/shm
+     * @param slots the number of tenants (ids 0 to slots-1)
+     * @param slotSize bytes per tenant, a multiple of 8 bounding the encoding length
+     * @return the table
+     * @throws IOException if the file can not be mapped, has a different
+     *         geometry, or another writer has it open
+     */
+    public static PasswordPolicyTable create(File file, int slots, int slotSize) throws IOException {
+        if (slots<0 || slotSize<=SLOT || slotSize%8!=0) {
+            throw new IllegalArgumentException("invalid policy table geometry: "+slots+" x "+slotSize);
+        }
+        long             size = HEADER+(long)slots*slotSize;
+        RandomAccessFile raf  = new RandomAccessFile(file, "rw");
+        try {
+            FileLock lock;
+            try {
+                lock = raf.getChannel().tryLock();
+            } catch (OverlappingFileLockException e) {
+                lock = null; // held elsewhere in this JVM
+            }
+            if (lock==null) {
+                throw new IOException("policy table already has a writer: "+file);
+            }
+            if (raf.length()==0) {
+                raf.setLength(size);
+                raf.writeInt(MAGIC);
+                raf.writeInt(VERSION);
+                raf.writeInt(slots);
+                raf.writeInt(slotSize);
+            }
+            MappedByteBuffer    map   = raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, raf.length());
+            PasswordPolicyTable table = new PasswordPolicyTable(raf, map, lock);
+            if (table.slots!=slots || table.slotSize!=slotSize) {
+                throw new IOException("policy table geometry is "+table.slots+" x "+table.slotSize+": "+file);
+            }
+            table.recover();
+            return table;
+        } catch (IOException e) {
+            raf.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Opens a table for reading.
+     * @param file the file written by {@link #create}
+     * @return the table
+     * @throws IOException if the file can not be mapped or is not a policy table
+     */
+    public static PasswordPolicyTable open(File file) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+        try {
+            return new PasswordPolicyTable(raf, raf.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, raf.length()), null);
+        } catch (IOException e) {
+            raf.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Withdraws any slot a previous writer left mid-update (odd sequence),
+     * since its encoding may be torn and readers would wait on it forever.
+     */
+    private void recover() {
+        for (int tenant=0; tenant<slots; tenant++) {
+            int base     = slot(tenant);
+            int sequence = map.getInt(base);
+            if ((sequence & 1)!=0) {
+                map.putInt(base+4, 0);
+                fullFence();
+                map.putInt(base, sequence+1);
+            }
+        }
+    }
+
+    public int getSlots() {
+        return slots;
+    }
+
+    private int slot(int tenant) {
+        if (tenant<0 || tenant>=slots) {
+            throw new IllegalArgumentException("tenant id out of range: "+tenant);
+        }
+        return HEADER+tenant*slotSize;
+    }
+
+    /**
+     * Publishes (or with null, withdraws) a tenant's policy.
+     * @param tenant the tenant id
+     * @param rules the rules, or null
+     * @throws IllegalArgumentException if the encoding does not fit a slot
+     * @throws IllegalStateException if the table was opened for reading
+     */
+    public void publish(int tenant, PasswordRules rules) {
+        if (lock==null) {
+            throw new IllegalStateException("policy table is open for reading");
+        }
+        byte[] encoding = rules==null ? new byte[0] : utf8(rules.toString());
+        if (encoding.length>slotSize-SLOT) {
+            throw new IllegalArgumentException("policy encoding is "+encoding.length+" bytes, slots hold "+(slotSize-SLOT));
+        }
+        int base = slot(tenant);
+        synchronized (this) {
+            int sequence = map.getInt(base);
+            map.putInt(base, sequence+1); // odd: readers retry
+            fullFence();
+            map.putInt(base+4, rules==null ? 0 : encoding.length+1);
+            ByteBuffer bytes = map.duplicate();
+            bytes.position(base+SLOT);
+            bytes.put(encoding);
+            fullFence();
+            map.putInt(base, sequence+2);
+        }
+    }
+
+    /**
+     * Looks up a tenant's policy.  The returned rules are shared by every
+     * caller until the policy changes, so they must not be modified.
+     * While a slot is mid-update, the rules last read from it are returned
+     * if the update replaces them, or once it has taken {@link #STALL_MILLIS}
+     * (the writer died or stalled during the update).
+     * @param tenant the tenant id
+     * @return the rules, or null if none is published
+     * @throws IllegalStateException if the slot has been mid-update for
+     *         {@link #STALL_MILLIS} and this table has never read it: it
+     *         stays unreadable until a new writer is created
+     */
+    public PasswordRules get(int tenant) {
+        int    base     = slot(tenant);
+        Cached cached   = cache[tenant];
+        int    sequence = map.getInt(base);
+        if (cached!=null && cached.sequence==sequence) {
+            return cached.rules; // unchanged since parsed: no fence needed
+        }
+        byte[]  encoding = null;
+        boolean present  = false;
+        long    deadline = 0;
+        while (true) {
+            if ((sequence & 1)==0) {
+                fullFence();
+                int length = map.getInt(base+4);
+                if (length>=0 && length<=slotSize-SLOT+1) {
+                    encoding = new byte[Math.max(length-1, 0)];
+                    ByteBuffer bytes = map.duplicate();
+                    bytes.position(base+SLOT);
+                    bytes.get(encoding);
+                    fullFence(); // the encoding loads must complete before the sequence is checked again
+                    if (map.getInt(base)==sequence) {
+                        present = length>0;
+                        break;
+                    }
+                }
+            } else if (cached!=null && cached.sequence==sequence-1) {
+                return cached.rules; // the update in progress replaces these: not yet visible
+            } else if (sequence==stuck[tenant]) {
+                return stale(tenant, cached); // already timed out at this sequence
+            } else if (deadline==0) {
+                deadline = System.nanoTime()+STALL_MILLIS*1000000L;
+            } else if (System.nanoTime()-deadline>0) {
+                stuck[tenant] = sequence;
+                return stale(tenant, cached);
+            }
+            Thread.yield(); // the writer is mid-update
+            sequence = map.getInt(base);
+            if (cached!=null && cached.sequence==sequence) {
+                return cached.rules;
+            }
+        }
+        PasswordRules rules = present ? new PasswordRules(string(encoding)) : null;
+        cache[tenant] = new Cached(sequence, rules);
+        return rules;
+    }
+
+    /**
+     * Answers for a slot left mid-update: the rules last read from it, if
+     * any, so that a stalled writer does not fail every lookup.
+     */
+    private static PasswordRules stale(int tenant, Cached cached) {
+        if (cached==null) {
+            throw new IllegalStateException("policy table slot "+tenant+" was left mid-update"+
+                                            " (did the writer die?); it recovers when a writer next opens the table");
+        }
+        return cached.rules;
+    }
+
+    /**
+     * Releases the file and, for the writer, the writer lock.  The mapping
+     * itself stays valid until it is collected.
+     */
+    public void close() throws IOException {
+        if (lock!=null) {
+            map.force();
+            lock.release();
+        }
+        raf.close();
+    }
+
+    private static byte[] utf8(String s) {
+        try {
+            return s.getBytes("UTF-8");
+        } catch (UnsupportedEncodingException e) {
+            throw new IllegalStateException(e); // UTF-8 is always supported
+        }
+    }
+
+    private static String string(byte[] b) {
+        try {
+            return new String(b, "UTF-8");
+        } catch (UnsupportedEncodingException e) {
+            throw new IllegalStateException(e); // UTF-8 is always supported
+        }
+    }
+}
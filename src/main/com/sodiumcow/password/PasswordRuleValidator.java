@@ -2,6 +2,8 @@ package com.sodiumcow.password;
 
 import java.util.Date;
 
+import com.sodiumcow.password.PasswordRules.CharacterType;
+
 public class PasswordRuleValidator {
     String username = null;
     
@@ -89,13 +91,17 @@ public class PasswordRuleValidator {
             (passwordRules.getRestrictUserNameInPassword() && 
              password.toLowerCase().indexOf(username.toLowerCase()) >= 0) ||
             (passwordRules.getRequireMixedCase() && 
-              (countChars(password, UPPERCASE) < passwordRules.getMinNumUpperCaseChars())) ||
+              (countChars(password, UPPERCASE, passwordRules) < passwordRules.getMinNumUpperCaseChars())) ||
             (passwordRules.getRequireMixedCase() && 
-              (countChars(password, LOWERCASE) < passwordRules.getMinNumLowerCaseChars())) ||
+              (countChars(password, LOWERCASE, passwordRules) < passwordRules.getMinNumLowerCaseChars())) ||
             (passwordRules.getRequireNumericChars() && 
-              (countChars(password, NUMERIC) < passwordRules.getMinNumNumericChars())) ||
+              (countChars(password, NUMERIC, passwordRules) < passwordRules.getMinNumNumericChars())) ||
             (passwordRules.getRequireSpecialChars() && 
-              (countChars(password, SPECIAL) < passwordRules.getMinNumSpecialChars())) ) { 
+              (countChars(password, SPECIAL, passwordRules) < passwordRules.getMinNumSpecialChars())) ||
+            (passwordRules.getAllowedChars() != null &&
+              passwordRules.getAllowedChars().count(password) < password.length()) ||
+            exceedsRuns(password, passwordRules) ||
+            containsDictionaryWord(password, passwordRules) ) { 
 
          return getPasswordRulesReminderMessage(passwordRules);
              
@@ -114,6 +120,43 @@ public class PasswordRuleValidator {
       return expired;
     }
      
+    // Use the rules' character class for the type, if it defines one
+    private static int countChars(String string, int type, PasswordRules passwordRules) {
+      CharacterType[] types = {CharacterType.UPPER, CharacterType.LOWER, CharacterType.DIGIT, CharacterType.SPECIAL};
+      CharacterClass  chars = passwordRules.getCharacterClass(types[type]);
+      if (chars != null)
+        return chars.count(string);
+      return countChars(string, type);
+    }
+
+    // Check the longest repeated, sequential and keyboard walk runs
+    private static boolean exceedsRuns(String string, PasswordRules passwordRules) {
+      if (!passwordRules.getRestrictRepeatedChars() && !passwordRules.getRestrictSequentialChars() &&
+          !passwordRules.getRestrictKeyboardWalks())
+        return false;
+      CharacterRuns runs = new CharacterRuns();
+      for (int i=0; i < string.length(); i++) {
+        runs.add(string.charAt(i));
+      }
+      return (passwordRules.getRestrictRepeatedChars() &&
+               runs.getMaxRepeat() > passwordRules.getMaxRepeatedChars()) ||
+             (passwordRules.getRestrictSequentialChars() &&
+               runs.getMaxSequence() > passwordRules.getMaxSequentialChars()) ||
+             (passwordRules.getRestrictKeyboardWalks() &&
+               runs.getMaxKeywalk() > passwordRules.getMaxKeyboardWalk());
+    }
+
+    // Use the rules' dictionary, or the default one
+    private static boolean containsDictionaryWord(String string, PasswordRules passwordRules) {
+      if (!passwordRules.getRestrictDictionaryWords())
+        return false;
+      PasswordDictionary dictionary = passwordRules.getDictionary();
+      if (dictionary == null)
+        dictionary = PasswordDictionary.getDefault();
+      return dictionary != null &&
+             dictionary.containsWord(string, passwordRules.getMinDictionaryWordLength());
+    }
+
     private static int countChars(String string, int type) {
       int count = 0;
       char[] pwChars = string.toCharArray();
@@ -180,9 +223,30 @@ public class PasswordRuleValidator {
           rulesString += rbTxt.getText("Character");
         else  
           rulesString += rbTxt.getText("Characters");
-        rulesString += ", " + rbTxt.getText("ForExample") + "," + " !@#$%^&*, etc.,\n   " + 
-                       rbTxt.getText("CannotContainSpace") + ".\n";
+        CharacterClass special = passwordRules.getCharacterClass(CharacterType.SPECIAL);
+        if (special != null)
+          rulesString += ": " + special + ".\n";
+        else
+          rulesString += ", " + rbTxt.getText("ForExample") + "," + " !@#$%^&*, etc.,\n   " + 
+                         rbTxt.getText("CannotContainSpace") + ".\n";
       } 
+      if (passwordRules.getAllowedChars() != null) {
+        rulesString += "   " + rbTxt.getText("AllowedCharacters") + ": " +
+                       passwordRules.getAllowedChars() + ".\n";
+      }
+      if (passwordRules.getRestrictRepeatedChars())
+        rulesString += "   " + rbTxt.getText("MaximumRepeated") + " " +
+                       passwordRules.getMaxRepeatedChars() + ".\n";
+      if (passwordRules.getRestrictSequentialChars())
+        rulesString += "   " + rbTxt.getText("MaximumSequential") + " " +
+                       passwordRules.getMaxSequentialChars() + ".\n";
+      if (passwordRules.getRestrictKeyboardWalks())
+        rulesString += "   " + rbTxt.getText("MaximumKeyboardWalk") + " " +
+                       passwordRules.getMaxKeyboardWalk() + ".\n";
+      if (passwordRules.getRestrictDictionaryWords())
+        rulesString += "   " + rbTxt.getText("NoDictionaryWords") + " " +
+                       passwordRules.getMinDictionaryWordLength() + " " +
+                       rbTxt.getText("Characters") + ".\n";
       rulesString += "\n";
       return rulesString;
     }
@@ -4,8 +4,6 @@ import java.util.Date;
 import java.util.EnumMap;
 import java.util.EnumSet;
 import java.util.Map;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
 
 import com.sodiumcow.password.PasswordRules.PasswordMatcher.Result;
 
@@ -19,12 +17,25 @@ public class PasswordRules {
     public enum CharacterType {
         CONTROL, SPACE, DIGIT, UPPER, LOWER, SPECIAL;
 
+        private static final CharacterType[] VALUES = values();
+
         /**
          * Returns the CharacterType mapped from java.lang.Character types.
+         * Latin-1 characters are looked up in a prebuilt table.
          * @param c the character
          * @return its CharacterType
          */
         public static CharacterType of(char c) {
+            return c<CharacterTables.TYPES.length() ? VALUES[CharacterTables.TYPES.charAt(c)-'0'] : ofType(c);
+        }
+
+        /**
+         * Maps java.lang.Character types directly, for characters outside
+         * the prebuilt table.
+         * @param c the character
+         * @return its CharacterType
+         */
+        static CharacterType ofType(char c) {
             switch (Character.getType(c)) {
             case Character.DECIMAL_DIGIT_NUMBER:    // 0-9
                 return DIGIT;
@@ -54,6 +65,17 @@ public class PasswordRules {
          * @return the counts collected by CharacterType
          */
         public static Map<CharacterType,Integer> of(String s) {
+            return of(s, null);
+        }
+
+        /**
+         * Returns a Map of CharacterType counts for a String, also feeding each
+         * character to a {@link CharacterRuns} tracker in the same pass.
+         * @param s the String to inspect
+         * @param runs the tracker to update, or null
+         * @return the counts collected by CharacterType
+         */
+        public static Map<CharacterType,Integer> of(String s, CharacterRuns runs) {
             EnumMap<CharacterType,Integer> counts = new EnumMap<CharacterType, Integer>(CharacterType.class);
             for (CharacterType t : CharacterType.values()) {
                 counts.put(t,  0);
@@ -61,6 +83,9 @@ public class PasswordRules {
             for (char c : s.toCharArray()) {
                 CharacterType t = of(c);
                 counts.put(t, counts.get(t)+1);
+                if (runs!=null) {
+                    runs.add(c);
+                }
             }
             return counts;
         }
@@ -75,6 +100,11 @@ public class PasswordRules {
     private int     minUnique  = 0;  // number of unique passwords before reuse
     private int     maxAge     = -1; // days before password change required
     private boolean noUser     = false;
+    private int     maxSimilar = -1; // edit distance from the current password
+    private int     maxRepeat  = -1; // longest run of one character
+    private int     maxSeq     = -1; // longest run like 1234 or abcd
+    private int     maxWalk    = -1; // longest run of neighboring keys
+    private int     minDict    = 0;  // shortest dictionary word prohibited
 
     public int     getMinPasswordLength()              { return minLength;             }
     public int     getMinNumUpperCaseChars()           { return minUpper;              }
@@ -89,6 +119,16 @@ public class PasswordRules {
     public int     getNumberofDaysUntilExpiration()    { return maxAge;                }
     public boolean getExpirePasswords()                { return maxAge>0;              }
     public boolean getRestrictUserNameInPassword()     { return noUser;                }
+    public int     getMaxSimilarDistance()             { return maxSimilar;            }
+    public boolean getRestrictSimilarPasswords()       { return maxSimilar>=0;         }
+    public int     getMaxRepeatedChars()               { return maxRepeat;             }
+    public boolean getRestrictRepeatedChars()          { return maxRepeat>=0;          }
+    public int     getMaxSequentialChars()             { return maxSeq;                }
+    public boolean getRestrictSequentialChars()        { return maxSeq>=0;             }
+    public int     getMaxKeyboardWalk()                { return maxWalk;               }
+    public boolean getRestrictKeyboardWalks()          { return maxWalk>=0;            }
+    public int     getMinDictionaryWordLength()        { return minDict;               }
+    public boolean getRestrictDictionaryWords()        { return minDict>0;             }
     
     public PasswordRules setMinPasswordLength             (int minLength ) { this.minLength  = minLength ; return this; }
     public PasswordRules setMinNumUpperCaseChars          (int minUpper  ) { this.minUpper   = minUpper  ; return this; }
@@ -98,6 +138,76 @@ public class PasswordRules {
     public PasswordRules setNumberOfPasswordsBeforeRepeats(int minUnique ) { this.minUnique  = minUnique ; return this; }
     public PasswordRules setNumberOfDaysUntilExpiration   (int maxAge    ) { this.maxAge     = maxAge    ; return this; }
     public PasswordRules setRestrictUserNameInPassword    (boolean noUser) { this.noUser     = noUser    ; return this; }
+    public PasswordRules setMaxSimilarDistance            (int maxSimilar) { this.maxSimilar = maxSimilar; return this; }
+    public PasswordRules setMaxRepeatedChars              (int maxRepeat ) { this.maxRepeat  = maxRepeat ; return this; }
+    public PasswordRules setMaxSequentialChars            (int maxSeq    ) { this.maxSeq     = maxSeq    ; return this; }
+    public PasswordRules setMaxKeyboardWalk               (int maxWalk   ) { this.maxWalk    = maxWalk   ; return this; }
+    public PasswordRules setMinDictionaryWordLength       (int minDict   ) { this.minDict    = minDict   ; return this; }
+
+    private PasswordDictionary dictionary = null;
+
+    /**
+     * Sets the dictionary for the !dictword constraint.  If none is set,
+     * {@link PasswordDictionary#getDefault()} is used.
+     * @param dictionary the dictionary, or null for the default
+     * @return this
+     */
+    public PasswordRules setDictionary(PasswordDictionary dictionary) {
+        this.dictionary = dictionary;
+        return this;
+    }
+
+    public PasswordDictionary getDictionary() {
+        return dictionary;
+    }
+
+    private final CharacterClass[] classes = new CharacterClass[CharacterType.values().length];
+    private       CharacterClass   allowed = null;
+
+    /**
+     * Overrides how characters of a type are counted: instead of by Unicode
+     * category, a character counts toward {@code type} if it is in
+     * {@code chars}.  For example, to accept only some special characters.
+     * @param type UPPER, LOWER, DIGIT or SPECIAL
+     * @param chars the characters of the type, or null for the default
+     * @return this
+     */
+    public PasswordRules setCharacterClass(CharacterType type, CharacterClass chars) {
+        if (type!=CharacterType.UPPER && type!=CharacterType.LOWER &&
+            type!=CharacterType.DIGIT && type!=CharacterType.SPECIAL) {
+            throw new IllegalArgumentException("no character class for "+type);
+        }
+        classes[type.ordinal()] = chars;
+        return this;
+    }
+
+    public CharacterClass getCharacterClass(CharacterType type) {
+        return classes[type.ordinal()];
+    }
+
+    /**
+     * Restricts passwords to the given characters (FORBIDDEN_CONSTRAINT).
+     * @param chars the allowed characters, or null to allow any
+     * @return this
+     */
+    public PasswordRules setAllowedChars(CharacterClass chars) {
+        this.allowed = chars;
+        return this;
+    }
+
+    public CharacterClass getAllowedChars() {
+        return allowed;
+    }
+
+    /**
+     * @return true if any character class or the allowed characters are set
+     */
+    public boolean hasCharacterClasses() {
+        for (CharacterClass c : classes) {
+            if (c!=null) return true;
+        }
+        return allowed!=null;
+    }
 
     /**
      * Returns a canonical parse-able serialization of the rules.
@@ -105,18 +215,44 @@ public class PasswordRules {
     @Override
     public String toString() {
         StringBuilder sb = new StringBuilder();
-        if (getMinPasswordLength()>0)        sb.append("length>=") .append(getMinPasswordLength())             .append(' ');
-        if (getMinNumUpperCaseChars()>0)     sb.append("upper>=")  .append(getMinNumUpperCaseChars())          .append(' ');
-        if (getMinNumLowerCaseChars()>0)     sb.append("lower>=")  .append(getMinNumLowerCaseChars())          .append(' ');
-        if (getMinNumNumericChars()>0)       sb.append("digit>=")  .append(getMinNumNumericChars())            .append(' ');
-        if (getMinNumSpecialChars()>0)       sb.append("special>=").append(getMinNumSpecialChars())            .append(' ');
-        if (getExpirePasswords())            sb.append("age<=")    .append(getNumberofDaysUntilExpiration())   .append(' ');
-        if (getPreventPasswordRepeats())     sb.append("repeat>=") .append(getNumberofPasswordsBeforeRepeats()).append(' ');
-        if (getRestrictUserNameInPassword()) sb.append("!user")                                                .append(' ');
+        if (getMinPasswordLength()>0)        sb.append("length>=")     .append(getMinPasswordLength())             .append(' ');
+        if (getMinNumUpperCaseChars()>0)     sb.append("upper>=")      .append(getMinNumUpperCaseChars())          .append(' ');
+        if (getMinNumLowerCaseChars()>0)     sb.append("lower>=")      .append(getMinNumLowerCaseChars())          .append(' ');
+        if (getMinNumNumericChars()>0)       sb.append("digit>=")      .append(getMinNumNumericChars())            .append(' ');
+        if (getMinNumSpecialChars()>0)       sb.append("special>=")    .append(getMinNumSpecialChars())            .append(' ');
+        if (getExpirePasswords())            sb.append("age<=")        .append(getNumberofDaysUntilExpiration())   .append(' ');
+        if (getPreventPasswordRepeats())     sb.append("repeat>=")     .append(getNumberofPasswordsBeforeRepeats()).append(' ');
+        if (getRestrictSimilarPasswords())   sb.append("similar<=")    .append(getMaxSimilarDistance())            .append(' ');
+        if (getRestrictRepeatedChars())      sb.append("maxrepeat<=")  .append(getMaxRepeatedChars())              .append(' ');
+        if (getRestrictSequentialChars())    sb.append("maxsequence<=").append(getMaxSequentialChars())            .append(' ');
+        if (getRestrictKeyboardWalks())      sb.append("keywalk<=")    .append(getMaxKeyboardWalk())               .append(' ');
+        if (getRestrictDictionaryWords())    sb.append("!dictword>=").append(getMinDictionaryWordLength())       .append(' ');
+        if (getRestrictUserNameInPassword()) sb.append("!user")                                                    .append(' ');
+        for (CharacterType t : CharacterType.values()) {
+            if (classes[t.ordinal()]!=null) {
+                sb.append(t.name().toLowerCase()).append("=\"").append(classes[t.ordinal()]).append("\" ");
+            }
+        }
+        if (allowed!=null) sb.append("allowed=\"").append(allowed).append("\" ");
         if (sb.length()>0) sb.setLength(sb.length()-1); // truncate final spurious ' '
         return sb.toString();
     }
 
+    /**
+     * Returns a 64-bit FNV-1a hash of the canonical serialization, suitable
+     * for identifying the policy a password was checked against.
+     * @return the policy fingerprint
+     */
+    public long getFingerprint() {
+        long   hash = 0xcbf29ce484222325L;
+        String spec = toString();
+        for (int i=0; i<spec.length(); i++) {
+            hash ^= spec.charAt(i);
+            hash *= 0x100000001b3L;
+        }
+        return hash;
+    }
+
     /**
      * Default constructor: all checks reset to no check.
      */
@@ -124,17 +260,6 @@ public class PasswordRules {
         // just use the defaults
     }
 
-    /**
-     * A clause in the specification is:
-     *    [!]word[op number]
-     * where op is <= or >=.  Capture groups set up for
-     *    1:! or nothing
-     *    2:the word
-     *    3:the first character of op, or nothing
-     *    4:the number, or nothing
-     */
-    private static final Pattern CLAUSE =
-        Pattern.compile("(?i)\\s*(!)?\\s*(\\w+)\\s*(?:([><])=\\s*(\\d+)\\s*)?");
     /**
      * Parsing constructor: parses a string for constraint tokens as follows:
      * <ul>
@@ -146,21 +271,31 @@ public class PasswordRules {
      * <li>age<=number        sets the getNumberOfDaysUntilExpiration constraint
      * <li>repeat>=number     sets the getNumberOfPasswordsBeforeRepeats constraint
      * <li>!user              sets the getRestrictUserNameInPassword constraint
+     * <li>similar<=number    sets the getMaxSimilarDistance constraint
+     * <li>maxrepeat<=number  sets the getMaxRepeatedChars constraint
+     * <li>maxsequence<=number sets the getMaxSequentialChars constraint
+     * <li>keywalk<=number    sets the getMaxKeyboardWalk constraint
+     * <li>!dictword>=number  sets the getMinDictionaryWordLength constraint
+     * <li>upper="chars"      sets the UPPER getCharacterClass (also lower, digit, special)
+     * <li>allowed="chars"    sets the getAllowedChars constraint
      * </ul>
+     * Each clause is {@code [!]word[op number]}, where op is {@code <=} or
+     * {@code >=}, or {@code word="characters"} defining a
+     * {@link CharacterClass}; {@link Clause} scans them.
      * @param spec the string to parse
      * @throws IllegalArgumentException in case of parsing error
      */
     public PasswordRules(String spec) {
         if (spec!=null) {
-            Matcher m   = CLAUSE.matcher(spec);
+            Clause  m   = new Clause(spec, true);
             int     i   = 0;
             String  err = "parsing error";
-            while (m.find() && m.start()==i) {
-                boolean bang    = m.group(1) != null;
-                String  id      = m.group(2);
-                boolean limited = m.group(3) != null;
-                char    ineq    = limited ? m.group(3).charAt(0) : 'x';
-                int     limit   = limited ? Integer.valueOf(m.group(4)) : -1;
+            while (m.match(i)) {
+                boolean bang    = m.bang;
+                String  id      = m.id;
+                String  chars   = m.chars;
+                char    ineq    = m.ineq;
+                int     limit   = m.limit;
                 if (id.equalsIgnoreCase("user")) {
                     if (!bang || ineq!='x') { err = "!user expected"          ; break; }
                     noUser = true;
@@ -170,6 +305,12 @@ public class PasswordRules {
                 } else if (id.equalsIgnoreCase("length")) {
                     if ( bang || ineq!='>') { err = "length>=number expected" ; break; }
                     minLength = limit;
+                } else if (ineq=='=' && !bang && (id.equalsIgnoreCase("upper") || id.equalsIgnoreCase("lower") ||
+                                                  id.equalsIgnoreCase("digit") || id.equalsIgnoreCase("special"))) {
+                    setCharacterClass(CharacterType.valueOf(id.toUpperCase()), CharacterClass.parse(chars));
+                } else if (id.equalsIgnoreCase("allowed")) {
+                    if ( bang || ineq!='=') { err = "allowed=\"chars\" expected"; break; }
+                    allowed = CharacterClass.parse(chars);
                 } else if (id.equalsIgnoreCase("upper")) {
                     if ( bang || ineq!='>') { err = "upper>=number expected"  ; break; }
                     minUpper = limit;
@@ -185,10 +326,25 @@ public class PasswordRules {
                 } else if (id.equalsIgnoreCase("repeat")) {
                     if ( bang || ineq!='>') { err = "repeat>=number expected" ; break; }
                     minUnique = limit;
+                } else if (id.equalsIgnoreCase("similar")) {
+                    if ( bang || ineq!='<') { err = "similar<=number expected"; break; }
+                    maxSimilar = limit;
+                } else if (id.equalsIgnoreCase("maxrepeat")) {
+                    if ( bang || ineq!='<') { err = "maxrepeat<=number expected"  ; break; }
+                    maxRepeat = limit;
+                } else if (id.equalsIgnoreCase("maxsequence")) {
+                    if ( bang || ineq!='<') { err = "maxsequence<=number expected"; break; }
+                    maxSeq = limit;
+                } else if (id.equalsIgnoreCase("keywalk")) {
+                    if ( bang || ineq!='<') { err = "keywalk<=number expected"    ; break; }
+                    maxWalk = limit;
+                } else if (id.equalsIgnoreCase("dictword")) {
+                    if (!bang || ineq!='>') { err = "!dictword>=number expected"  ; break; }
+                    minDict = limit;
                 } else {
                     /* otherwise */         { err = "unrecognized token";       break; }
                 }
-                i = m.end();
+                i = m.end;
             }
             if (i<spec.length()) {
                 // we didn't make it cleanly to the end
@@ -218,7 +374,46 @@ public class PasswordRules {
         SPECIAL_CONSTRAINT,
         REUSE_CONSTRAINT,
         AGE_CONSTRAINT,
-        USERSUBSTRING_CONSTRAINT;
+        USERSUBSTRING_CONSTRAINT,
+        SIMILAR_CONSTRAINT,
+        REPEATED_CONSTRAINT,
+        SEQUENCE_CONSTRAINT,
+        KEYWALK_CONSTRAINT,
+        DICTWORD_CONSTRAINT,
+        FORBIDDEN_CONSTRAINT;
+    }
+
+    private static final int FORBIDDEN = CharacterType.values().length;
+
+    /**
+     * Counts the characters of a password by CharacterType in a single pass,
+     * using the CharacterClass for types that have one, and counts the
+     * characters outside the allowed characters in element FORBIDDEN.
+     * @param password the password
+     * @param runs a tracker to feed each character to, or null
+     * @return the counts indexed by ordinal, and the FORBIDDEN count
+     */
+    private int[] classify(String password, CharacterRuns runs) {
+        int[] counts = new int[FORBIDDEN+1];
+        for (int i=0; i<password.length(); i++) {
+            char c = password.charAt(i);
+            int  t = CharacterType.of(c).ordinal();
+            if (classes[t]==null) {
+                counts[t]++;
+            }
+            for (int k=0; k<classes.length; k++) {
+                if (classes[k]!=null && classes[k].contains(c)) {
+                    counts[k]++;
+                }
+            }
+            if (allowed!=null && !allowed.contains(c)) {
+                counts[FORBIDDEN]++;
+            }
+            if (runs!=null) {
+                runs.add(c);
+            }
+        }
+        return counts;
     }
 
     /**
@@ -240,22 +435,55 @@ public class PasswordRules {
      * @return an {@code EnumSet} of violated constraints
      */
     public EnumSet<PasswordConstraint> getContentViolations(String password, String user, PasswordMatcher matcher) {
+        return getContentViolations(password, user, matcher, null);
+    }
+
+    /**
+     * Analyzes a proposed password against the rules as for
+     * {@link #getContentViolations(String, String, PasswordMatcher)}, additionally
+     * comparing it with the current password to check SIMILAR_CONSTRAINT.  The
+     * current password is only available in plain text at change time, so
+     * {@code current} may be null, which disables the check.
+     *
+     * @param password the new password
+     * @param user the username (required to check USERSUBSTRING_CONSTRAINT)
+     * @param matcher a password history matcher (required to check REUSE_CONSTRAINT)
+     * @param current the current password (required to check SIMILAR_CONSTRAINT)
+     * @return an {@code EnumSet} of violated constraints
+     */
+    public EnumSet<PasswordConstraint> getContentViolations(String password, String user, PasswordMatcher matcher, String current) {
         EnumSet<PasswordConstraint> violations = EnumSet.noneOf(PasswordConstraint.class);
-        if (minUpper+minLower+minDigit+minSpecial > 0) {
-            // need to count characters
-            Map<CharacterType,Integer> counts = CharacterType.of(password);
-            if (counts.get(CharacterType.UPPER  ) < minUpper) {
+        boolean runs = maxRepeat>=0 || maxSeq>=0 || maxWalk>=0;
+        if (minUpper+minLower+minDigit+minSpecial > 0 || runs || allowed!=null) {
+            // need to count characters, tracking runs in the same pass
+            CharacterRuns tracker = runs ? new CharacterRuns() : null;
+            int[]         counts  = classify(password, tracker);
+            if (counts[CharacterType.UPPER  .ordinal()] < minUpper) {
                 violations.add(PasswordConstraint.UPPERCASE_CONSTRAINT);
             }
-            if (counts.get(CharacterType.LOWER  ) < minLower) {
+            if (counts[CharacterType.LOWER  .ordinal()] < minLower) {
                 violations.add(PasswordConstraint.LOWERCASE_CONSTRAINT);
             }
-            if (counts.get(CharacterType.DIGIT  ) < minDigit) {
+            if (counts[CharacterType.DIGIT  .ordinal()] < minDigit) {
                 violations.add(PasswordConstraint.DIGIT_CONSTRAINT);
             }
-            if (counts.get(CharacterType.SPECIAL) < minSpecial) {
+            if (counts[CharacterType.SPECIAL.ordinal()] < minSpecial) {
                 violations.add(PasswordConstraint.SPECIAL_CONSTRAINT);
             }
+            if (counts[FORBIDDEN] > 0) {
+                violations.add(PasswordConstraint.FORBIDDEN_CONSTRAINT);
+            }
+            if (runs) {
+                if (maxRepeat>=0 && tracker.getMaxRepeat()>maxRepeat) {
+                    violations.add(PasswordConstraint.REPEATED_CONSTRAINT);
+                }
+                if (maxSeq>=0 && tracker.getMaxSequence()>maxSeq) {
+                    violations.add(PasswordConstraint.SEQUENCE_CONSTRAINT);
+                }
+                if (maxWalk>=0 && tracker.getMaxKeywalk()>maxWalk) {
+                    violations.add(PasswordConstraint.KEYWALK_CONSTRAINT);
+                }
+            }
         }
         if (password.length() < minLength) {
             violations.add(PasswordConstraint.LENGTH_CONSTRAINT);
@@ -263,6 +491,16 @@ public class PasswordRules {
         if (noUser && user!=null && password.toLowerCase().indexOf(user.toLowerCase())>=0) {
             violations.add(PasswordConstraint.USERSUBSTRING_CONSTRAINT);
         }
+        if (maxSimilar>=0 && current!=null &&
+            EditDistance.damerau(password, current, maxSimilar)<=maxSimilar) {
+            violations.add(PasswordConstraint.SIMILAR_CONSTRAINT);
+        }
+        if (minDict>0) {
+            PasswordDictionary dict = dictionary!=null ? dictionary : PasswordDictionary.getDefault();
+            if (dict!=null && dict.containsWord(password, minDict)) {
+                violations.add(PasswordConstraint.DICTWORD_CONSTRAINT);
+            }
+        }
         if (minUnique>0 && matcher!=null) {
             Result result=Result.NO_GENERATION;
             for (int g=0;
@@ -275,6 +513,183 @@ public class PasswordRules {
         return violations;
     }
 
+    /*
+     * The content fingerprint packs the constraints an existing password can
+     * be re-checked against into fixed fields, low bits first.  MIN fields
+     * hold the minimum, MAX fields hold the maximum or all ones when off,
+     * DICT holds the dictionary word length (0 when off), CLASSES is set
+     * when there are character class definitions, and CHECKSUM is a 19-bit
+     * hash of the dictionary checksum (when on) and the canonical class
+     * definitions, so two different dictionaries or class sets are mistaken
+     * for one another about once in half a million.  The limit fields are
+     * sized for realistic policies (anything larger is UNENCODABLE).  VERSION
+     * holds FP_FORMAT, and bit 63 is left for UNENCODABLE.  Fingerprints are
+     * stored alongside passwords, and every bit is in use: a new content
+     * constraint means a new layout with the next FP_FORMAT.  Fingerprints
+     * of any other format imply nothing, so passwords stored with them are
+     * revalidated once and then stored with a current fingerprint.
+     */
+    private static final int FP_MIN      = 0;
+    private static final int FP_MAX      = 1;
+    private static final int FP_DICT     = 2;
+    private static final int FP_FLAG     = 3;
+    private static final int FP_CLASSES  = 4;
+    private static final int FP_CHECKSUM = 5;
+    private static final int FP_VERSION  = 6;
+    private static final int FP_FORMAT   = 1;
+    private static final int[] FP_KIND = {FP_MIN, FP_MIN, FP_MIN, FP_MIN, FP_MIN,
+                                          FP_MAX, FP_MAX, FP_MAX, FP_DICT, FP_FLAG, FP_CLASSES, FP_CHECKSUM, FP_VERSION};
+    private static final int[] FP_BITS = {6,      4,      4,      4,      4,
+                                          4,      4,      4,      4,       1,       1,          19,          4};
+
+    /**
+     * The content fingerprint of rules with a limit too large for its field.
+     * It implies nothing and is implied by nothing, so passwords stored with
+     * it are always revalidated.
+     */
+    public static final long UNENCODABLE = 1L<<63;
+
+    /**
+     * Returns a stable fingerprint of the content constraints (length,
+     * character counts, runs, dictionary words and username), the ones an
+     * existing password can be checked against.  Store it with the password
+     * hash when the password is set, and use {@link #needsRevalidation} at
+     * login to see if the rules have since become stricter.  Reuse,
+     * similarity and age do not apply to an existing password and are left
+     * out.  Rules with character classes are only comparable with rules
+     * defining exactly the same classes.
+     * @return the fingerprint, or {@link #UNENCODABLE}
+     */
+    public long getContentFingerprint() {
+        PasswordDictionary dict = minDict<=0         ? null
+                                : dictionary!=null   ? dictionary
+                                :                      PasswordDictionary.getDefault();
+        long[] values = {Math.max(minLength, 0), Math.max(minUpper, 0), Math.max(minLower, 0),
+                         Math.max(minDigit, 0), Math.max(minSpecial, 0),
+                         maxRepeat, maxSeq, maxWalk,
+                         dict==null ? 0 : minDict,
+                         noUser ? 1 : 0,
+                         hasCharacterClasses() ? 1 : 0,
+                         identity(dict),
+                         FP_FORMAT};
+        long fp    = 0;
+        int  shift = 0;
+        for (int i=0; i<values.length; i++) {
+            long all = (1L<<FP_BITS[i])-1;
+            long v   = values[i];
+            if (FP_KIND[i]==FP_MAX) {
+                if (v<0) {
+                    v = all; // off
+                } else if (v>=all) {
+                    return UNENCODABLE;
+                }
+            } else if (v>all) {
+                return UNENCODABLE;
+            }
+            fp    |= v<<shift;
+            shift += FP_BITS[i];
+        }
+        return fp;
+    }
+
+    /**
+     * Hashes the dictionary checksum (if any) and the canonical class
+     * definitions into the 19-bit CHECKSUM field.
+     */
+    private long identity(PasswordDictionary dict) {
+        if (dict==null && !hasCharacterClasses()) {
+            return 0;
+        }
+        StringBuilder sb = new StringBuilder();
+        sb.append(dict==null ? 0 : dict.getChecksum());
+        for (CharacterType t : CharacterType.values()) {
+            if (classes[t.ordinal()]!=null) {
+                sb.append(' ').append(t.name().toLowerCase()).append('=').append(classes[t.ordinal()]);
+            }
+        }
+        if (allowed!=null) sb.append(" allowed=").append(allowed);
+        long hash = 0xcbf29ce484222325L;
+        for (int i=0; i<sb.length(); i++) {
+            hash ^= sb.charAt(i);
+            hash *= 0x100000001b3L;
+        }
+        return (hash ^ hash>>>19 ^ hash>>>38 ^ hash>>>57) & 0x7ffff;
+    }
+
+    /**
+     * Returns true if every password acceptable under the rules with content
+     * fingerprint {@code stored} is also acceptable under the rules with
+     * fingerprint {@code current}, that is, the stored rules are at least as
+     * strict.  Compares a fixed number of fields, so it is O(1).  A
+     * fingerprint of another format implies nothing.
+     * @param stored the fingerprint the password was validated against
+     * @param current the fingerprint of the rules now in force
+     * @return true if the stored rules imply the current ones
+     */
+    public static boolean implies(long stored, long current) {
+        if (((stored|current) & UNENCODABLE) != 0) {
+            return false;
+        }
+        boolean dictOn    = false;
+        boolean classesOn = false;
+        int     shift     = 0;
+        for (int i=0; i<FP_BITS.length; i++) {
+            long all = (1L<<FP_BITS[i])-1;
+            long s   = stored >>>shift & all;
+            long c   = current>>>shift & all;
+            switch (FP_KIND[i]) {
+            case FP_MIN:
+                if (s<c) return false;
+                break;
+            case FP_MAX:
+                if (c!=all && (s==all || s>c)) return false;
+                break;
+            case FP_DICT:
+                dictOn = c!=0;
+                if (dictOn && (s==0 || s>c)) return false;
+                break;
+            case FP_FLAG:
+                if (c!=0 && s==0) return false;
+                break;
+            case FP_CLASSES:
+                classesOn = c!=0;
+                if (s!=c) return false;
+                break;
+            case FP_CHECKSUM:
+                if ((dictOn || classesOn) && s!=c) return false;
+                break;
+            case FP_VERSION:
+                if (s!=FP_FORMAT || c!=FP_FORMAT) return false;
+                break;
+            }
+            shift += FP_BITS[i];
+        }
+        return true;
+    }
+
+    /**
+     * Returns true if these rules are at least as strict as {@code other} for
+     * the content of a password.  Rules with limits too large to fingerprint
+     * are conservatively not comparable.
+     * @param other the other rules
+     * @return true if a password valid under these rules is valid under other
+     */
+    public boolean isAtLeastAsStrictAs(PasswordRules other) {
+        return implies(getContentFingerprint(), other.getContentFingerprint());
+    }
+
+    /**
+     * Checks, at login, whether a password that was validated under the rules
+     * with content fingerprint {@code stored} must be checked again against
+     * these rules.  If so, run {@link #getContentViolations} on the password
+     * just entered and either force a change or store the new fingerprint.
+     * @param stored the content fingerprint saved with the password
+     * @return true if the password must be revalidated
+     */
+    public boolean needsRevalidation(long stored) {
+        return !implies(stored, getContentFingerprint());
+    }
+
     /**
      * Checks the last changed {@code Date} of an existing password against
      * the AGE_CONSTRAINT in the PasswordRules.
@@ -0,0 +1,178 @@
+package com.sodiumcow.password;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.Socket;
+import java.util.ArrayDeque;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.List;
+
+import com.sodiumcow.password.PasswordRules.PasswordConstraint;
+
+/**
+ * Client for {@link PasswordRulesServer}.  {@link #validate} makes a
+ * single round trip.  For throughput, {@link #send} any number of batches
+ * and then {@link #receive} their results in the same order; the
+ * connection is not thread safe.
+ * <p>
+ * The server only answers while it can keep reading, so unread results
+ * must not fill the socket buffers.  Once more than {@link #MAX_PENDING}
+ * checks are unread, {@code send} reads the oldest results off the
+ * connection and holds them until they are received.
+ */
+public class PasswordRulesClient implements Closeable {
+
+    /** One password to check. */
+    public static class Check {
+        public final String policy;
+        public final String user;
+        public final String password;
+        public final String current;
+
+        /**
+         * @param policy the policy name published on the server
+         * @param user the username, or null
+         * @param password the proposed password
+         * @param current the current password, or null
+         */
+        public Check(String policy, String user, String password, String current) {
+            this.policy   = policy;
+            this.user     = user;
+            this.password = password;
+            this.current  = current;
+        }
+    }
+
+    /** The most checks whose results may be left on the connection (16k of results). */
+    public static final int MAX_PENDING = 4096;
+
+    private final Socket                socket;
+    private final DataInputStream       in;
+    private final DataOutputStream      out;
+    private final ByteArrayOutputStream frame    = new ByteArrayOutputStream();
+    private final ArrayDeque<Integer>   sizes    = new ArrayDeque<Integer>(); // of batches sent, results unread
+    private final ArrayDeque<int[]>     received = new ArrayDeque<int[]>();   // results read, not yet received
+    private       int                   pending  = 0; // the checks in sizes
+    private       int                   nextId   = 0; // for the next send
+    private       int                   nextRead = 0; // of the next response on the connection
+    private       int                   nextDone = 0; // for the next receive
+
+    /**
+     * Connects to a server.
+     * @param host the host, normally null for loopback
+     * @param port the port
+     * @throws IOException if the connection fails
+     */
+    public PasswordRulesClient(String host, int port) throws IOException {
+        socket = new Socket(host, port);
+        socket.setTcpNoDelay(true);
+        in     = new DataInputStream(new BufferedInputStream(socket.getInputStream(), 65536));
+        out    = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream(), 65536));
+    }
+
+    /**
+     * Queues a batch of checks without waiting for the results.  The batch
+     * is written once the buffer fills or on {@link #flush}, and results
+     * are read ahead first if more than {@link #MAX_PENDING} would be unread.
+     * @param batch the checks, at most 65535
+     * @return the request id the response will carry
+     * @throws IOException on a connection error
+     */
+    public int send(List<Check> batch) throws IOException {
+        if (batch.size()>0xffff) {
+            throw new IllegalArgumentException("batch too large: "+batch.size());
+        }
+        while (!sizes.isEmpty() && pending+batch.size()>MAX_PENDING) {
+            out.flush();
+            received.add(read());
+        }
+        int id = nextId++;
+        frame.reset();
+        DataOutputStream f = new DataOutputStream(frame);
+        f.writeByte(PasswordRulesServer.VALIDATE);
+        f.writeInt(id);
+        f.writeShort(batch.size());
+        for (Check c : batch) {
+            f.writeUTF(c.policy);
+            f.writeUTF(c.user==null ? "" : c.user);
+            f.writeUTF(c.password);
+            f.writeUTF(c.current==null ? "" : c.current);
+        }
+        if (frame.size()>PasswordRulesServer.MAX_FRAME) {
+            throw new IllegalArgumentException("batch too large: "+frame.size()+" bytes");
+        }
+        out.writeInt(frame.size());
+        frame.writeTo(out);
+        sizes.add(batch.size());
+        pending += batch.size();
+        return id;
+    }
+
+    public void flush() throws IOException {
+        out.flush();
+    }
+
+    /**
+     * Waits for the results of the oldest outstanding batch, flushing any
+     * queued batches first.
+     * @param id the id {@link #send} returned for that batch
+     * @return the violation bitmasks in batch order, each
+     *         {@link PasswordRulesServer#UNKNOWN_POLICY} for an unknown policy
+     * @throws IllegalArgumentException if {@code id} is not the oldest outstanding batch
+     * @throws IOException on a read error or a response out of order
+     */
+    public int[] receive(int id) throws IOException {
+        if (id!=nextDone || nextDone==nextId) {
+            throw new IllegalArgumentException("batch "+id+" is not the oldest outstanding");
+        }
+        nextDone++;
+        if (!received.isEmpty()) {
+            return received.remove();
+        }
+        out.flush();
+        return read();
+    }
+
+    private int[] read() throws IOException {
+        in.readInt(); // frame length
+        int got = in.readInt();
+        if (got!=nextRead) {
+            throw new IOException("expected response "+nextRead+", got "+got);
+        }
+        int[] masks = new int[in.readUnsignedShort()];
+        for (int i=0; i<masks.length; i++) {
+            masks[i] = in.readInt();
+        }
+        nextRead++;
+        pending -= sizes.remove();
+        return masks;
+    }
+
+    /**
+     * Checks one password in a single round trip.
+     * @param policy the policy name published on the server
+     * @param user the username, or null
+     * @param password the proposed password
+     * @param current the current password, or null
+     * @return an {@code EnumSet} of violated constraints
+     * @throws IllegalArgumentException if the server does not know the policy
+     * @throws IOException on a connection error
+     */
+    public EnumSet<PasswordConstraint> validate(String policy, String user, String password, String current) throws IOException {
+        int mask = receive(send(Collections.singletonList(new Check(policy, user, password, current))))[0];
+        if (mask==PasswordRulesServer.UNKNOWN_POLICY) {
+            throw new IllegalArgumentException("unknown policy: "+policy);
+        }
+        return PasswordAuditReader.violations(mask);
+    }
+
+    public void close() throws IOException {
+        socket.close();
+    }
+}
@@ -0,0 +1,227 @@
+package com.sodiumcow.password;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.lang.reflect.InvocationTargetException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Embeddable server that validates passwords against named
+ * {@link PasswordRules} for processes that can not call the Java classes
+ * directly, so that every tier applies exactly the same policy.  It
+ * listens on the loopback interface and serves each connection on its own
+ * thread (a virtual thread where the runtime has them).
+ * <p>
+ * The protocol is a stream of length-prefixed frames in each direction,
+ * all values big-endian and strings as {@link DataOutputStream#writeUTF}:
+ * <pre>
+ *    request:  int length, byte VALIDATE, int id, short count,
+ *              count * (UTF policy, UTF user, UTF password, UTF current)
+ *    response: int length, int id, short count, count * int violations
+ * </pre>
+ * A frame carries a batch of {@code count} checks.  Clients may pipeline
+ * any number of frames without waiting; responses come back in request
+ * order, echoing the id.  Each result is a bitmask of the
+ * {@link PasswordRules.PasswordConstraint} ordinals violated (see
+ * {@link PasswordAuditLog#mask}), or {@link #UNKNOWN_POLICY}.  An empty
+ * user or current password means none.  There is no password history on
+ * the server, so REUSE_CONSTRAINT is not checked.
+ */
+public class PasswordRulesServer implements Closeable {
+
+    public static final byte VALIDATE       = 1;
+    public static final int  UNKNOWN_POLICY = -1;
+    public static final int  MAX_FRAME      = 1<<20;
+
+    private final ConcurrentMap<String,PasswordRules> policies = new ConcurrentHashMap<String,PasswordRules>();
+    private final Set<Socket>                         clients  =
+        Collections.newSetFromMap(new ConcurrentHashMap<Socket,Boolean>());
+    private final ServerSocket                        server;
+    private final ThreadFactory                       threads;
+    private final Thread                              acceptor;
+    private volatile boolean                          running  = true;
+
+    /**
+     * Starts a server on a loopback port.
+     * @param port the port, or 0 for any free port (see {@link #getPort})
+     * @param threads creates the per-connection threads, or null for the default
+     * @throws IOException if the port can not be bound
+     */
+    public PasswordRulesServer(int port, ThreadFactory threads) throws IOException {
+        this.server   = new ServerSocket();
+        this.server.bind(new InetSocketAddress(InetAddress.getByName(null), port));
+        this.threads  = threads!=null ? threads : defaultThreadFactory();
+        this.acceptor = new Thread(new Runnable() {
+            public void run() {
+                accept();
+            }
+        }, "password-rules-server");
+        acceptor.setDaemon(true);
+        acceptor.start();
+    }
+
+    public PasswordRulesServer(int port) throws IOException {
+        this(port, null);
+    }
+
+    /**
+     * Returns a factory for virtual threads if the runtime supports them
+     * (Java 21), otherwise for daemon platform threads.
+     * @throws IllegalStateException if virtual threads exist but can not be used
+     */
+    static ThreadFactory defaultThreadFactory() {
+        try {
+            // Thread.ofVirtual().factory(), without requiring Java 21 to compile.  factory() is
+            // looked up on the public Thread.Builder interface: the builder's own class is not
+            // accessible outside java.base.
+            Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+            return (ThreadFactory)Class.forName("java.lang.Thread$Builder").getMethod("factory").invoke(builder);
+        } catch (NoSuchMethodException e) {
+            // before Java 21: fall through
+        } catch (InvocationTargetException e) {
+            if (!(e.getCause() instanceof UnsupportedOperationException)) {
+                throw new IllegalStateException("can not create virtual threads", e.getCause());
+            }
+            // a preview release without --enable-preview: fall through
+        } catch (Exception e) {
+            throw new IllegalStateException("can not create virtual threads", e);
+        }
+        return new ThreadFactory() {
+            public Thread newThread(Runnable r) {
+                Thread t = new Thread(r, "password-rules-connection");
+                t.setDaemon(true);
+                return t;
+            }
+        };
+    }
+
+    /**
+     * Publishes (or replaces) a named policy.
+     * @param name the policy name clients refer to
+     * @param rules the rules
+     * @return this
+     */
+    public PasswordRulesServer setPolicy(String name, PasswordRules rules) {
+        policies.put(name, rules);
+        return this;
+    }
+
+    public PasswordRulesServer removePolicy(String name) {
+        policies.remove(name);
+        return this;
+    }
+
+    public int getPort() {
+        return server.getLocalPort();
+    }
+
+    /**
+     * Stops accepting connections and closes the open ones.
+     */
+    public void close() throws IOException {
+        running = false;
+        server.close();
+        for (Socket s : clients) {
+            try {
+                s.close();
+            } catch (IOException e) {
+                // closing anyway
+            }
+        }
+    }
+
+    private void accept() {
+        while (running) {
+            try {
+                final Socket socket = server.accept();
+                socket.setTcpNoDelay(true);
+                clients.add(socket);
+                threads.newThread(new Runnable() {
+                    public void run() {
+                        serve(socket);
+                    }
+                }).start();
+            } catch (IOException e) {
+                // closed, or a failed accept: keep going while running
+            }
+        }
+    }
+
+    private void serve(Socket socket) {
+        try {
+            DataInputStream  in  = new DataInputStream(new BufferedInputStream(socket.getInputStream(), 65536));
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream(), 65536));
+            ByteArrayOutputStream frame = new ByteArrayOutputStream();
+            while (true) {
+                int length;
+                try {
+                    length = in.readInt();
+                } catch (EOFException e) {
+                    break; // client closed
+                }
+                if (length<0 || length>MAX_FRAME) {
+                    throw new IOException("bad frame length "+length);
+                }
+                byte[] request = new byte[length];
+                in.readFully(request);
+                frame.reset();
+                handle(new DataInputStream(new ByteArrayInputStream(request)), new DataOutputStream(frame));
+                out.writeInt(frame.size());
+                frame.writeTo(out);
+                if (in.available()==0) {
+                    out.flush(); // pipelined requests still buffered: answer them first
+                }
+            }
+            out.flush();
+        } catch (IOException e) {
+            // protocol error or connection reset: drop the connection
+        } finally {
+            clients.remove(socket);
+            try {
+                socket.close();
+            } catch (IOException e) {
+                // closing anyway
+            }
+        }
+    }
+
+    private void handle(DataInputStream in, DataOutputStream out) throws IOException {
+        byte type = in.readByte();
+        if (type!=VALIDATE) {
+            throw new IOException("unknown request type "+type);
+        }
+        int   id    = in.readInt();
+        int   count = in.readUnsignedShort();
+        out.writeInt(id);
+        out.writeShort(count);
+        for (int i=0; i<count; i++) {
+            PasswordRules rules    = policies.get(in.readUTF());
+            String        user     = in.readUTF();
+            String        password = in.readUTF();
+            String        current  = in.readUTF();
+            if (rules==null) {
+                out.writeInt(UNKNOWN_POLICY);
+            } else {
+                out.writeInt(PasswordAuditLog.mask(rules.getContentViolations(password,
+                                                                              user.length()==0 ? null : user,
+                                                                              null,
+                                                                              current.length()==0 ? null : current)));
+            }
+        }
+    }
+}
@@ -0,0 +1,262 @@
+package com.sodiumcow.password;
+
+import java.io.UnsupportedEncodingException;
+import java.nio.ByteBuffer;
+import java.security.GeneralSecurityException;
+import java.security.SecureRandom;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+
+import com.sodiumcow.password.PasswordRules.PasswordMatcher;
+
+/**
+ * Opt-in cache of recent REUSE_CONSTRAINT rejections, so that a user who
+ * resubmits the same rejected password does not pay for the full walk of
+ * the password history against slow hashes again.  Wrap the history
+ * matcher for each check:
+ * <pre>
+ *    rules.getContentViolations(password, user, cache.matcher(user, history));
+ * </pre>
+ * and call {@link #invalidate} whenever the user's history changes.
+ * <p>
+ * Only rejections are remembered: when a walk finds a match at generation
+ * {@code g} after generations {@code 0..g-1} did not match, the cache
+ * records {@code g} for a limited time.  Entries are keyed by an HMAC of
+ * the user and password under a key that never leaves the process, so
+ * neither plain text nor an unkeyed hash is stored.  The cache holds at
+ * most {@code maxUsers} users (least recently used are evicted) and
+ * {@link #PER_USER} passwords per user.
+ */
+public class ReuseCache {
+
+    public static final int PER_USER = 4;
+
+    private static final String ALGORITHM = "HmacSHA256";
+
+    /** A truncated (128 bit) HMAC. */
+    private static class Digest {
+        final long high;
+        final long low;
+
+        Digest(byte[] mac) {
+            ByteBuffer b = ByteBuffer.wrap(mac);
+            high = b.getLong();
+            low  = b.getLong();
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof Digest && ((Digest)o).high==high && ((Digest)o).low==low;
+        }
+
+        @Override
+        public int hashCode() {
+            return (int)(high ^ high>>>32);
+        }
+    }
+
+    /** The recent rejections of one user, newest overwriting oldest. */
+    private static class UserEntry {
+        final Digest[] passwords   = new Digest[PER_USER];
+        final int[]    generations = new int[PER_USER];
+        final long[]   expires     = new long[PER_USER];
+        int            next        = 0;
+    }
+
+    private final long                            ttl;
+    private final LinkedHashMap<Digest,UserEntry> users;
+    private final ThreadLocal<Mac>                macs;
+    private       long                            invalidations = 0; // guarded by users
+
+    /**
+     * Creates a cache with a random key.
+     * @param maxUsers the maximum number of users remembered
+     * @param ttlMillis how long a rejection is remembered
+     */
+    public ReuseCache(int maxUsers, long ttlMillis) {
+        this(maxUsers, ttlMillis, randomKey());
+    }
+
+    /**
+     * Creates a cache with the given HMAC key.
+     * @param maxUsers the maximum number of users remembered
+     * @param ttlMillis how long a rejection is remembered
+     * @param key the HMAC key
+     */
+    public ReuseCache(final int maxUsers, long ttlMillis, byte[] key) {
+        this.ttl   = ttlMillis;
+        this.users = new LinkedHashMap<Digest,UserEntry>(16, 0.75f, true) {
+            private static final long serialVersionUID = 1L;
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Digest,UserEntry> eldest) {
+                return size()>maxUsers;
+            }
+        };
+        final SecretKeySpec spec = new SecretKeySpec(key, ALGORITHM);
+        this.macs = new ThreadLocal<Mac>() {
+            @Override
+            protected Mac initialValue() {
+                try {
+                    Mac mac = Mac.getInstance(ALGORITHM);
+                    mac.init(spec);
+                    return mac;
+                } catch (GeneralSecurityException e) {
+                    throw new IllegalStateException(ALGORITHM+" unavailable", e);
+                }
+            }
+        };
+    }
+
+    private static byte[] randomKey() {
+        byte[] key = new byte[32];
+        new SecureRandom().nextBytes(key);
+        return key;
+    }
+
+    private Digest digest(String user, String password) {
+        Mac mac = macs.get();
+        try {
+            mac.update((byte)(password==null ? 'u' : 'p'));
+            mac.update(user.getBytes("UTF-8"));
+            if (password!=null) {
+                mac.update((byte)0);
+                mac.update(password.getBytes("UTF-8"));
+            }
+        } catch (UnsupportedEncodingException e) {
+            throw new IllegalStateException(e); // UTF-8 is always supported
+        }
+        return new Digest(mac.doFinal());
+    }
+
+    /** The invalidation count, to tell if an invalidation intervened. */
+    private long epoch() {
+        synchronized (users) {
+            return invalidations;
+        }
+    }
+
+    /**
+     * Returns the generation at which {@code password} was recently found
+     * to be reused.
+     * @param user the user
+     * @param password the rejected password
+     * @return the generation, or -1 if not cached
+     */
+    int lookup(String user, String password) {
+        Digest userKey = digest(user, null);
+        Digest pwKey   = digest(user, password);
+        long   now     = System.currentTimeMillis();
+        synchronized (users) {
+            UserEntry entry = users.get(userKey);
+            if (entry!=null) {
+                for (int i=0; i<PER_USER; i++) {
+                    if (pwKey.equals(entry.passwords[i]) && entry.expires[i]>now) {
+                        return entry.generations[i];
+                    }
+                }
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Remembers a rejection, unless the cache was invalidated since the walk
+     * that found it began, in which case the history may have changed.
+     */
+    void remember(String user, String password, int generation, long epoch) {
+        Digest userKey = digest(user, null);
+        Digest pwKey   = digest(user, password);
+        long   expires = System.currentTimeMillis()+ttl;
+        synchronized (users) {
+            if (invalidations!=epoch) {
+                return;
+            }
+            UserEntry entry = users.get(userKey);
+            if (entry==null) {
+                entry = new UserEntry();
+                users.put(userKey, entry);
+            }
+            int i = entry.next;
+            for (int j=0; j<PER_USER; j++) {
+                if (pwKey.equals(entry.passwords[j])) {
+                    i = j; // refresh in place
+                    break;
+                }
+            }
+            entry.passwords  [i] = pwKey;
+            entry.generations[i] = generation;
+            entry.expires    [i] = expires;
+            if (i==entry.next) {
+                entry.next = (entry.next+1) % PER_USER;
+            }
+        }
+    }
+
+    /**
+     * Forgets everything cached for a user.  Call this whenever the user's
+     * password history changes.
+     * @param user the user
+     */
+    public void invalidate(String user) {
+        Digest userKey = digest(user, null);
+        synchronized (users) {
+            users.remove(userKey);
+            invalidations++;
+        }
+    }
+
+    /**
+     * Forgets everything.
+     */
+    public void clear() {
+        synchronized (users) {
+            users.clear();
+            invalidations++;
+        }
+    }
+
+    /**
+     * Returns a PasswordMatcher for one user that answers from the cache when
+     * it can and otherwise delegates to {@code history}, remembering any
+     * reuse it finds.  The returned matcher is meant for a single check and
+     * is not thread safe.
+     * @param user the user
+     * @param history the real history matcher
+     * @return the caching matcher
+     */
+    public PasswordMatcher matcher(final String user, final PasswordMatcher history) {
+        return new PasswordMatcher() {
+            private String password = null;
+            private int    cached   = -1;
+            private int    clean    = 0;  // generations 0..clean-1 did not match
+            private long   epoch    = 0;
+
+            public Result matches(String candidate, int generation) {
+                if (!candidate.equals(password)) {
+                    password = candidate;
+                    epoch    = epoch();
+                    cached   = lookup(user, candidate);
+                    clean    = 0;
+                }
+                if (cached>=0) {
+                    if (generation<cached) {
+                        return Result.NO_MATCH;
+                    } else if (generation==cached) {
+                        return Result.MATCH;
+                    }
+                }
+                Result result = history.matches(candidate, generation);
+                if (result==Result.NO_MATCH && generation==clean) {
+                    clean++;
+                } else if (result==Result.MATCH && generation==clean && cached<0) {
+                    remember(user, candidate, generation, epoch);
+                    cached = generation;
+                }
+                return result;
+            }
+        };
+    }
+}
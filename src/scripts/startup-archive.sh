@@ -0,0 +1,43 @@
+#!/bin/sh
+#
+# Builds an AppCDS archive of the password validator classes and compares
+# time to first validation with and without it.
+#
+#   src/scripts/startup-archive.sh CLASSPATH [ARCHIVE] [RUNS]
+#
+# CLASSPATH lists jars (CDS only archives classes loaded from jars) holding
+# the main and test classes; StartupBenchmark is the training run.  The
+# archive only matches the JDK and CLASSPATH it was built with.  Needs JDK
+# 13 or later for -XX:ArchiveClassesAtExit, and GNU date.
+#
+# The fast-startup profile for short-lived tools is then:
+#
+#   java -XX:SharedArchiveFile=ARCHIVE -XX:TieredStopAtLevel=1 -cp CLASSPATH ...
+#
+set -e
+
+if [ $# -lt 1 ]; then
+    echo "usage: $0 CLASSPATH [ARCHIVE] [RUNS]" >&2
+    exit 1
+fi
+cp=$1
+archive=${2:-password-validator.jsa}
+runs=${3:-10}
+main=com.sodiumcow.password.StartupBenchmark
+
+java -XX:ArchiveClassesAtExit="$archive" -cp "$cp" $main --label=training >/dev/null
+
+header=true
+for profile in default fast; do
+    if [ $profile = fast ]; then
+        opts="-XX:SharedArchiveFile=$archive -XX:TieredStopAtLevel=1"
+    else
+        opts=""
+    fi
+    i=0
+    while [ $i -lt "$runs" ]; do
+        java $opts -cp "$cp" $main --label=$profile --header=$header --launched="$(date +%s%3N)"
+        header=false
+        i=$((i+1))
+    done
+done
@@ -0,0 +1,99 @@
+package com.sodiumcow.password;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+
+/**
+ * Regenerates {@link CharacterTables} from the runtime definitions it
+ * replaces: {@link CharacterType#ofType} over Latin-1 and the
+ * {@link KeyboardLayout} rows.  Run it after changing either, from the
+ * project root:
+ * <pre>
+ *    java com.sodiumcow.password.CharacterTablesGenerator [src/main/com/sodiumcow/password/CharacterTables.java]
+ * </pre>
+ * {@code CharacterTablesTest} fails while the checked-in tables are stale.
+ */
+public class CharacterTablesGenerator {
+
+    static String types() {
+        StringBuilder sb = new StringBuilder();
+        for (int c=0; c<256; c++) {
+            sb.append((char)('0'+CharacterType.ofType((char)c).ordinal()));
+        }
+        return sb.toString();
+    }
+
+    static KeyboardLayout usQwerty() {
+        return new KeyboardLayout(KeyboardLayout.US_QWERTY_ROWS,
+                                  KeyboardLayout.US_QWERTY_SHIFTED,
+                                  KeyboardLayout.US_QWERTY_OFFSETS);
+    }
+
+    static String keys(KeyboardLayout layout) {
+        StringBuilder sb = new StringBuilder();
+        for (byte k : layout.keys) {
+            sb.append((char)('0'+k));
+        }
+        return sb.toString();
+    }
+
+    private static String literal(String s) {
+        StringBuilder sb = new StringBuilder("\"");
+        for (char c : s.toCharArray()) {
+            if (c=='\\' || c=='"') sb.append('\\');
+            sb.append(c);
+        }
+        return sb.append('"').toString();
+    }
+
+    private static void lines(PrintWriter out, String indent, String s, int width) {
+        for (int i=0; i<s.length(); i+=width) {
+            out.print(indent+literal(s.substring(i, Math.min(s.length(), i+width))));
+            out.println(i+width<s.length() ? " +" : ";");
+        }
+    }
+
+    public static void main(String[] args) throws IOException {
+        File           file   = new File(args.length>0 ? args[0] : "src/main/com/sodiumcow/password/CharacterTables.java");
+        KeyboardLayout layout = usQwerty();
+        PrintWriter    out    = new PrintWriter(new OutputStreamWriter(new FileOutputStream(file), "US-ASCII"));
+        try {
+            out.println("package com.sodiumcow.password;");
+            out.println();
+            out.println("/**");
+            out.println(" * Lookup tables prebuilt by CharacterTablesGenerator (in the tests), so");
+            out.println(" * that loading the classes that use them is a constant load rather than a");
+            out.println(" * computation.  Do not edit: change the definitions and regenerate.");
+            out.println(" */");
+            out.println("final class CharacterTables {");
+            out.println();
+            out.println("    private CharacterTables() {");
+            out.println("    }");
+            out.println();
+            out.println("    /** CharacterType ordinal of each Latin-1 character, offset by '0'. */");
+            out.println("    static final String TYPES =");
+            lines(out, "        ", types(), 64);
+            out.println();
+            out.println("    /** US QWERTY key number of each ASCII character, offset by '0'. */");
+            out.println("    static final String US_QWERTY_KEYS =");
+            lines(out, "        ", keys(layout), 64);
+            out.println();
+            out.println("    /** US QWERTY adjacency bitmask of each key. */");
+            out.println("    static final long[] US_QWERTY_ADJACENCY = {");
+            for (int k=0; k<layout.adjacency.length; k+=4) {
+                out.print("       ");
+                for (int j=k; j<Math.min(k+4, layout.adjacency.length); j++) {
+                    out.print(String.format(" 0x%016xL,", layout.adjacency[j]));
+                }
+                out.println();
+            }
+            out.println("    };");
+            out.println("}");
+        } finally {
+            out.close();
+        }
+    }
+}
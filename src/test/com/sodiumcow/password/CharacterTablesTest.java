@@ -0,0 +1,77 @@
+package com.sodiumcow.password;
+
+import static org.junit.Assert.*;
+
+import java.util.Arrays;
+import java.util.Random;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.junit.Test;
+
+public class CharacterTablesTest {
+
+    @Test
+    public final void testTablesAreCurrent() {
+        // fails when the definitions change without rerunning CharacterTablesGenerator
+        assertEquals(CharacterTablesGenerator.types(), CharacterTables.TYPES);
+        KeyboardLayout compiled = CharacterTablesGenerator.usQwerty();
+        assertEquals(CharacterTablesGenerator.keys(compiled), CharacterTables.US_QWERTY_KEYS);
+        assertArrayEquals(compiled.keys, KeyboardLayout.US_QWERTY.keys);
+        assertTrue(Arrays.equals(compiled.adjacency, KeyboardLayout.US_QWERTY.adjacency));
+    }
+
+    @Test
+    public final void testCharacterTypes() {
+        for (char c=0; c<0x300; c++) {
+            assertEquals(CharacterType.ofType(c), CharacterType.of(c));
+            assertEquals(CharacterType.ofType(c).ordinal(), PasswordRules.CharacterType.of(c).ordinal());
+        }
+    }
+
+    /** The regular expressions Clause replaced. */
+    private static final Pattern RULES =
+        Pattern.compile("(?i)\\s*(!)?\\s*(\\w+)\\s*(?:([><])=\\s*(\\d+)\\s*|=\\s*\"((?:[^\"\\\\]|\\\\.)*)\"\\s*)?");
+    private static final Pattern CONSTRAINTS =
+        Pattern.compile("(?i)\\s*(!)?\\s*(\\w+)\\s*(?:([><])=\\s*(\\d+)\\s*)?");
+
+    private static void assertSameClauses(Pattern pattern, boolean classes, String spec) {
+        Matcher m = pattern.matcher(spec);
+        Clause  c = new Clause(spec, classes);
+        int     i = 0;
+        int     q = classes ? 5 : 0; // the quoted group, if any
+        while (true) {
+            boolean found = m.find(i) && m.start()==i;
+            assertEquals(spec, found, c.match(i));
+            if (!found) break;
+            assertEquals(spec, m.group(1)!=null, c.bang);
+            assertEquals(spec, m.group(2), c.id);
+            assertEquals(spec, m.group(3)!=null ? m.group(3).charAt(0) : q>0 && m.group(q)!=null ? '=' : 'x', c.ineq);
+            assertEquals(spec, m.group(4)!=null ? Integer.parseInt(m.group(4)) : -1, c.limit);
+            assertEquals(spec, q>0 ? m.group(q) : null, c.chars);
+            assertEquals(spec, m.end(), c.end);
+            i = m.end();
+        }
+    }
+
+    @Test
+    public final void testClauseMatchesRegex() {
+        String[] specs = {"", "  ", "length>=8 upper>=1", " ! user", "age <= 30", "x>=", "x> =1", "x>=\t7 \n",
+                          "special=\"!@#\"", "special = \"a\\\"b\" lower>=1", "special=\"abc", "special=\"a\\\n\"",
+                          "_a1=\"\"", "!dictword>=4", "=\"x\"", "a b", "a!b"};
+        for (String spec : specs) {
+            assertSameClauses(RULES, true, spec);
+            assertSameClauses(CONSTRAINTS, false, spec);
+        }
+        String alphabet = "ab1_!<>=\" \t\\\n\u00e9";
+        Random random   = new Random(1);
+        for (int n=0; n<20000; n++) {
+            StringBuilder sb = new StringBuilder();
+            for (int k=random.nextInt(12); k>0; k--) {
+                sb.append(alphabet.charAt(random.nextInt(alphabet.length())));
+            }
+            assertSameClauses(RULES, true, sb.toString());
+            assertSameClauses(CONSTRAINTS, false, sb.toString());
+        }
+    }
+}
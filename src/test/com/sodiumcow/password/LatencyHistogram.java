@@ -0,0 +1,87 @@
+package com.sodiumcow.password;
+
+/**
+ * A log-linear latency histogram in the style of HdrHistogram: values below
+ * 64 are counted exactly, and each power of two above that is split into 64
+ * sub-buckets, bounding the recorded error at about 1.6% over the full
+ * {@code long} range in under 4K buckets.  Not thread safe: give each
+ * thread its own and {@link #add} them together at the end.
+ */
+public class LatencyHistogram {
+
+    private static final int SUB_BITS    = 6;
+    private static final int SUB_BUCKETS = 1<<SUB_BITS;
+    private static final int BUCKETS     = SUB_BUCKETS + (63-SUB_BITS)*SUB_BUCKETS;
+
+    private final long[] counts = new long[BUCKETS];
+    private long         total  = 0;
+    private long         sum    = 0;
+    private long         max    = 0;
+
+    private static int index(long value) {
+        if (value<SUB_BUCKETS) {
+            return (int)Math.max(value, 0);
+        }
+        int exp = 63-Long.numberOfLeadingZeros(value);
+        int sub = (int)(value>>>(exp-SUB_BITS)) - SUB_BUCKETS;
+        return SUB_BUCKETS + (exp-SUB_BITS)*SUB_BUCKETS + sub;
+    }
+
+    private static long highest(int index) {
+        if (index<SUB_BUCKETS) {
+            return index;
+        }
+        int exp = (index-SUB_BUCKETS)/SUB_BUCKETS + SUB_BITS;
+        int sub = (index-SUB_BUCKETS)%SUB_BUCKETS;
+        return ((long)(SUB_BUCKETS+sub+1)<<(exp-SUB_BITS)) - 1;
+    }
+
+    /**
+     * Records a value.
+     * @param value the value, usually nanoseconds
+     */
+    public void record(long value) {
+        counts[index(value)]++;
+        total++;
+        sum += value;
+        if (value>max) max = value;
+    }
+
+    /**
+     * Adds the counts of another histogram to this one.
+     * @param other the other histogram
+     * @return this
+     */
+    public LatencyHistogram add(LatencyHistogram other) {
+        for (int i=0; i<BUCKETS; i++) {
+            counts[i] += other.counts[i];
+        }
+        total += other.total;
+        sum   += other.sum;
+        max    = Math.max(max, other.max);
+        return this;
+    }
+
+    public long getCount() { return total; }
+    public long getMax()   { return max;   }
+    public double getMean() {
+        return total==0 ? 0 : (double)sum/total;
+    }
+
+    /**
+     * Returns the value at a percentile, accurate to the bucket resolution.
+     * @param percentile 0 to 100
+     * @return the highest value in the bucket containing the percentile
+     */
+    public long getValueAtPercentile(double percentile) {
+        long target = Math.max(1, (long)Math.ceil(total*percentile/100.0));
+        long seen   = 0;
+        for (int i=0; i<BUCKETS; i++) {
+            seen += counts[i];
+            if (seen>=target) {
+                return Math.min(highest(i), max);
+            }
+        }
+        return max;
+    }
+}
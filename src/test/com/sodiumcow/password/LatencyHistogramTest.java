@@ -0,0 +1,62 @@
+package com.sodiumcow.password;
+
+import static org.junit.Assert.*;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+public class LatencyHistogramTest {
+
+    @Test
+    public final void testExactBelow128() {
+        LatencyHistogram h = new LatencyHistogram();
+        for (int v=1; v<=100; v++) {
+            h.record(v);
+        }
+        assertEquals(100, h.getCount());
+        assertEquals(100, h.getMax());
+        assertEquals(50.5, h.getMean(), 1e-9);
+        assertEquals(1,   h.getValueAtPercentile(0));
+        assertEquals(50,  h.getValueAtPercentile(50));
+        assertEquals(99,  h.getValueAtPercentile(99));
+        assertEquals(100, h.getValueAtPercentile(100));
+    }
+
+    @Test
+    public final void testBuckets() {
+        LatencyHistogram h = new LatencyHistogram();
+        h.record(1000); // 1000>>>3 = 125: the bucket 1000 to 1007
+        h.record(2000);
+        assertEquals(1007, h.getValueAtPercentile(50));
+        assertEquals(2000, h.getValueAtPercentile(100)); // capped at the max
+        h.record(Long.MAX_VALUE); // the last bucket
+        assertEquals(Long.MAX_VALUE, h.getValueAtPercentile(100));
+
+        // the reported value is the top of the value's bucket, within 1/64 of it
+        Random random = new Random(1);
+        for (int n=0; n<10000; n++) {
+            long             v   = random.nextLong()>>>(1+random.nextInt(63));
+            LatencyHistogram one = new LatencyHistogram();
+            one.record(v);
+            one.record(Long.MAX_VALUE);
+            long top = one.getValueAtPercentile(50);
+            assertTrue(v+" "+top, top>=v && top-v<=v/64);
+        }
+    }
+
+    @Test
+    public final void testAdd() {
+        LatencyHistogram a = new LatencyHistogram();
+        LatencyHistogram b = new LatencyHistogram();
+        for (int v=1; v<=50; v++) {
+            a.record(v);
+            b.record(v+50);
+        }
+        a.add(b);
+        assertEquals(100, a.getCount());
+        assertEquals(100, a.getMax());
+        assertEquals(50.5, a.getMean(), 1e-9);
+        assertEquals(75, a.getValueAtPercentile(75));
+    }
+}
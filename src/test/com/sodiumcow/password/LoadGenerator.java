@@ -0,0 +1,252 @@
+package com.sodiumcow.password;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.lang.reflect.Method;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+import com.sodiumcow.password.PasswordRules.PasswordMatcher;
+
+/**
+ * Multi-threaded open-model load generator for login-storm scenarios.
+ * Operations are scheduled at a fixed target rate regardless of how long
+ * earlier ones took, and each latency is measured from the operation's
+ * intended start time, so a stalled worker shows up as queueing delay in
+ * the percentiles rather than as a quiet period (no coordinated omission).
+ * <p>
+ * Usage:
+ * <pre>
+ *    java com.sodiumcow.password.LoadGenerator [--option=value]...
+ *
+ *    --scenario=rules|validator|constraints  what to drive (rules)
+ *    --rules=spec          the PasswordRules spec
+ *    --threads=n           worker threads (8)
+ *    --virtual=true|false  use virtual threads, Java 21+ (false)
+ *    --rate=n              target operations/second across all threads (10000)
+ *    --duration=s          measured seconds (10)
+ *    --warmup=s            unmeasured seconds first (2)
+ *    --matcher=sleep|spin|locked  PasswordMatcher stand-in (spin)
+ *    --matcherMicros=n     injected latency per matches() call (0)
+ *    --history=n           generations of history the matcher holds (5)
+ *    --label=text          build label for the CSV row (dev)
+ *    --csv=file            append results to file instead of stdout
+ * </pre>
+ */
+public class LoadGenerator {
+
+    /**
+     * PasswordMatcher stand-in with injected latency.  {@code sleep} parks
+     * (an I/O bound store), {@code spin} burns CPU (a slow hash) and
+     * {@code locked} spins while holding a single shared lock (a store
+     * behind one connection).
+     */
+    static class DelayedMatcher implements PasswordMatcher {
+        private static final Object LOCK = new Object();
+
+        private final String mode;
+        private final long   nanos;
+        private final int    history;
+
+        DelayedMatcher(String mode, long nanos, int history) {
+            this.mode    = mode;
+            this.nanos   = nanos;
+            this.history = history;
+        }
+
+        public Result matches(String password, int generation) {
+            if (generation>=history) {
+                return Result.NO_GENERATION;
+            }
+            if (mode.equals("sleep")) {
+                if (nanos>0) LockSupport.parkNanos(nanos);
+            } else if (mode.equals("locked")) {
+                synchronized (LOCK) {
+                    spin(nanos);
+                }
+            } else {
+                spin(nanos);
+            }
+            return Result.NO_MATCH;
+        }
+
+        private static void spin(long nanos) {
+            long end = System.nanoTime()+nanos;
+            while (System.nanoTime()<end) {
+                // burn
+            }
+        }
+    }
+
+    private final Map<String,String> options;
+    private final String             scenario;
+    private final PasswordRules      rules;
+    private final Map<PasswordConstraint,Integer> constraints;
+    private final PasswordMatcher    matcher;
+    private final int                threads;
+    private final boolean            virtual;
+    private final double             rate;
+    private final String[]           passwords = new String[1024];
+
+    LoadGenerator(Map<String,String> options) {
+        this.options  = options;
+        String spec   = option("rules", "length>=8 upper>=1 lower>=1 digit>=1 special>=1 repeat>=5 !user");
+        scenario      = option("scenario", "rules");
+        rules         = new PasswordRules(spec);
+        constraints   = PasswordConstraint.parse(spec);
+        matcher       = new DelayedMatcher(option("matcher", "spin"),
+                                           TimeUnit.MICROSECONDS.toNanos(Long.parseLong(option("matcherMicros", "0"))),
+                                           Integer.parseInt(option("history", "5")));
+        threads       = Integer.parseInt(option("threads", "8"));
+        virtual       = Boolean.parseBoolean(option("virtual", "false"));
+        rate          = Double.parseDouble(option("rate", "10000"));
+        Random random = new Random(1);
+        String chars  = "abcdefghijklmnopqrstuvwxyzABCDEFGHIJKLMNOPQRSTUVWXYZ0123456789!@#$%^&*";
+        for (int i=0; i<passwords.length; i++) {
+            StringBuilder sb = new StringBuilder();
+            for (int n=4+random.nextInt(12); n>0; n--) {
+                sb.append(chars.charAt(random.nextInt(chars.length())));
+            }
+            passwords[i] = sb.toString();
+        }
+    }
+
+    private String option(String name, String dflt) {
+        String value = options.get(name);
+        return value==null ? dflt : value;
+    }
+
+    private void operation(long ticket) {
+        String password = passwords[(int)(ticket % passwords.length)];
+        String user     = "user"+(ticket % 1000);
+        if (scenario.equals("rules")) {
+            rules.getContentViolations(password, user, matcher);
+        } else if (scenario.equals("validator")) {
+            PasswordRuleValidator validator = new PasswordRuleValidator(user);
+            validator.setPackageText(new PackageText());
+            validator.verifyPassword(user, password, rules);
+        } else if (scenario.equals("constraints")) {
+            CharacterCounts counts = new CharacterCounts();
+            for (Map.Entry<PasswordConstraint,Integer> c : constraints.entrySet()) {
+                c.getKey().validate(constraints, password, counts, user, matcher, null);
+            }
+        } else {
+            throw new IllegalArgumentException("unknown scenario: "+scenario);
+        }
+    }
+
+    /**
+     * Runs the workers for {@code seconds} at the target rate.
+     * @param seconds how long to run
+     * @return the merged latency histogram (nanoseconds)
+     */
+    LatencyHistogram run(double seconds) throws InterruptedException {
+        final long               tickets = (long)(seconds*rate);
+        final long               start   = System.nanoTime();
+        final AtomicLong         next    = new AtomicLong();
+        final LatencyHistogram[] results = new LatencyHistogram[threads];
+        Thread[]                 workers = new Thread[threads];
+        for (int t=0; t<threads; t++) {
+            final int id = t;
+            results[t] = new LatencyHistogram();
+            workers[t] = newThread(new Runnable() {
+                public void run() {
+                    long ticket;
+                    while ((ticket=next.getAndIncrement())<tickets) {
+                        long intended = start+(long)(ticket*1e9/rate); // no truncated period to drift
+                        long wait;
+                        while ((wait=intended-System.nanoTime())>0) {
+                            LockSupport.parkNanos(wait);
+                        }
+                        operation(ticket);
+                        results[id].record(System.nanoTime()-intended);
+                    }
+                }
+            });
+            workers[t].start();
+        }
+        LatencyHistogram merged = new LatencyHistogram();
+        for (int t=0; t<threads; t++) {
+            workers[t].join();
+            merged.add(results[t]);
+        }
+        return merged;
+    }
+
+    private Thread newThread(Runnable r) {
+        if (!virtual) {
+            return new Thread(r);
+        }
+        try {
+            // Thread.ofVirtual().unstarted(r), without requiring Java 21 to compile.  unstarted()
+            // is looked up on the public Thread.Builder interface: the builder's own class is not
+            // accessible outside java.base.
+            Object builder   = Thread.class.getMethod("ofVirtual").invoke(null);
+            Method unstarted = Class.forName("java.lang.Thread$Builder").getMethod("unstarted", Runnable.class);
+            return (Thread)unstarted.invoke(builder, r);
+        } catch (Exception e) {
+            throw new IllegalStateException("virtual threads require Java 21 or later", e);
+        }
+    }
+
+    private static final String HEADER =
+        "label,scenario,threads,virtual,target_rate,seconds,ops,achieved_rate,"+
+        "mean_us,p50_us,p90_us,p99_us,p999_us,p9999_us,max_us";
+
+    private String csv(LatencyHistogram h, double seconds, double elapsed) {
+        return String.format("%s,%s,%d,%b,%.0f,%.1f,%d,%.0f,%.1f,%.1f,%.1f,%.1f,%.1f,%.1f,%.1f",
+                             option("label", "dev"), scenario, threads, virtual, rate, seconds,
+                             h.getCount(), h.getCount()/elapsed,
+                             h.getMean()/1000.0,
+                             h.getValueAtPercentile(50)/1000.0,
+                             h.getValueAtPercentile(90)/1000.0,
+                             h.getValueAtPercentile(99)/1000.0,
+                             h.getValueAtPercentile(99.9)/1000.0,
+                             h.getValueAtPercentile(99.99)/1000.0,
+                             h.getMax()/1000.0);
+    }
+
+    public static void main(String[] args) throws InterruptedException, IOException {
+        Map<String,String> options = new HashMap<String,String>();
+        for (String arg : args) {
+            int eq = arg.indexOf('=');
+            if (!arg.startsWith("--") || eq<0) {
+                System.err.println("usage: LoadGenerator [--option=value]... (see javadoc)");
+                System.exit(1);
+            }
+            options.put(arg.substring(2, eq), arg.substring(eq+1));
+        }
+        LoadGenerator generator = new LoadGenerator(options);
+        double warmup   = Double.parseDouble(generator.option("warmup", "2"));
+        double duration = Double.parseDouble(generator.option("duration", "10"));
+        if (warmup>0) {
+            generator.run(warmup);
+        }
+        long             begin     = System.nanoTime();
+        LatencyHistogram histogram = generator.run(duration);
+        double           elapsed   = (System.nanoTime()-begin)/1e9;
+
+        String file = options.get("csv");
+        if (file==null) {
+            System.out.println(HEADER);
+            System.out.println(generator.csv(histogram, duration, elapsed));
+        } else {
+            boolean     exists = new File(file).length()>0;
+            PrintWriter out    = new PrintWriter(new FileWriter(file, true));
+            try {
+                if (!exists) {
+                    out.println(HEADER);
+                }
+                out.println(generator.csv(histogram, duration, elapsed));
+            } finally {
+                out.close();
+            }
+        }
+    }
+}
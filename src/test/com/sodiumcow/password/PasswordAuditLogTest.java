@@ -0,0 +1,189 @@
+package com.sodiumcow.password;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.EnumSet;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+import com.sodiumcow.password.PasswordAuditLog.Backpressure;
+import com.sodiumcow.password.PasswordAuditLog.Event;
+import com.sodiumcow.password.PasswordRules.PasswordConstraint;
+
+public class PasswordAuditLogTest {
+
+    private static File tempDir() throws IOException {
+        File dir = File.createTempFile("audit", "");
+        dir.delete();
+        dir.mkdirs();
+        return dir;
+    }
+
+    private static void delete(File dir) {
+        for (File f : dir.listFiles()) {
+            f.delete();
+        }
+        dir.delete();
+    }
+
+    @Test
+    public final void testRoundTrip() throws IOException {
+        File dir = tempDir();
+        try {
+            PasswordRules    rules = new PasswordRules("length>=8 digit>=1");
+            PasswordAuditLog log   = new PasswordAuditLog(dir, "audit", 16, 4, 1024, 0, Backpressure.BLOCK);
+            for (int i=0; i<1000; i++) {
+                log.record("user"+i, rules, rules.getContentViolations(i%2==0 ? "short" : "longenough1", null, null));
+            }
+            log.close();
+            File[] files = PasswordAuditLog.files(dir, "audit");
+            assertTrue(files.length>1); // rotated
+            int n = 0;
+            for (File f : files) {
+                PasswordAuditReader reader = new PasswordAuditReader(f);
+                Event e;
+                while ((e=reader.read())!=null) {
+                    assertEquals("user"+n, e.user);
+                    assertEquals(rules.getFingerprint(), e.policy);
+                    assertEquals(n%2==0 ? EnumSet.of(PasswordConstraint.LENGTH_CONSTRAINT, PasswordConstraint.DIGIT_CONSTRAINT)
+                                        : EnumSet.noneOf(PasswordConstraint.class),
+                                 PasswordAuditReader.violations(e.violations));
+                    n++;
+                }
+                reader.close();
+            }
+            assertEquals(1000, n);
+        } finally {
+            delete(dir);
+        }
+    }
+
+    @Test
+    public final void testRetention() throws IOException {
+        File dir = tempDir();
+        try {
+            PasswordAuditLog log = new PasswordAuditLog(dir, "audit", 16, 4, 64, 3, Backpressure.BLOCK);
+            for (int i=0; i<200; i++) {
+                log.record(new Event(i, "u", 0, 0));
+            }
+            log.close();
+            assertEquals(3, PasswordAuditLog.files(dir, "audit").length);
+        } finally {
+            delete(dir);
+        }
+    }
+
+    private static int count(File dir) throws IOException {
+        int n = 0;
+        for (File f : PasswordAuditLog.files(dir, "audit")) {
+            PasswordAuditReader reader = new PasswordAuditReader(f);
+            while (reader.read()!=null) {
+                n++;
+            }
+            reader.close();
+        }
+        return n;
+    }
+
+    @Test
+    public final void testDrop() throws IOException {
+        File dir = tempDir();
+        try {
+            PasswordAuditLog log = new PasswordAuditLog(dir, "audit", 2, 4, 1024, 0, Backpressure.DROP);
+            synchronized (log.draining) { // stall the writer so the ring fills
+                for (int i=0; i<5; i++) {
+                    assertEquals(i<2, log.record(new Event(i, "u", 0, 0)));
+                }
+            }
+            assertEquals(3, log.getDropped());
+            log.close();
+            assertEquals(2, count(dir));
+        } finally {
+            delete(dir);
+        }
+    }
+
+    @Test
+    public final void testReject() throws IOException {
+        File dir = tempDir();
+        try {
+            PasswordAuditLog log = new PasswordAuditLog(dir, "audit", 1, 4, 1024, 0, Backpressure.REJECT);
+            synchronized (log.draining) {
+                assertTrue(log.record(new Event(0, "u", 0, 0)));
+                assertTrue(log.record(new Event(1, "u", 0, 0))); // capacity 1 rounds up to 2
+                try {
+                    log.record(new Event(2, "u", 0, 0));
+                    fail("full log accepted an event");
+                } catch (IllegalStateException expected) {
+                }
+            }
+            assertEquals(0, log.getDropped());
+            log.close();
+            assertEquals(2, count(dir));
+        } finally {
+            delete(dir);
+        }
+    }
+
+    @Test
+    public final void testStrayFiles() throws IOException {
+        File dir = tempDir();
+        try {
+            File stray = new File(dir, "audit.backup01.pwa");
+            new FileOutputStream(stray).close();
+            PasswordAuditLog log = new PasswordAuditLog(dir, "audit", 16, 4, 1024, 0, Backpressure.BLOCK);
+            log.record(new Event(0, "u", 0, 0));
+            log.close();
+            File[] files = PasswordAuditLog.files(dir, "audit");
+            assertEquals(1, files.length);
+            assertEquals("audit.00000000.pwa", files[0].getName());
+            assertTrue(stray.exists());
+        } finally {
+            delete(dir);
+        }
+    }
+
+    @Test
+    public final void testCloseWhileRecording() throws Exception {
+        File dir = tempDir();
+        try {
+            final PasswordAuditLog log      = new PasswordAuditLog(dir, "audit", 64, 16, 1<<20, 0, Backpressure.BLOCK);
+            final AtomicInteger    accepted = new AtomicInteger();
+            Thread[]               threads  = new Thread[4];
+            for (int t=0; t<threads.length; t++) {
+                threads[t] = new Thread(new Runnable() {
+                    public void run() {
+                        try {
+                            for (int i=0; ; i++) {
+                                log.record(new Event(i, "u", 0, 0));
+                                accepted.incrementAndGet();
+                            }
+                        } catch (IllegalStateException closed) {
+                        }
+                    }
+                });
+                threads[t].start();
+            }
+            Thread.sleep(50);
+            log.close();
+            for (Thread t : threads) {
+                t.join();
+            }
+            // every event record accepted was written, including any accepted during close
+            assertEquals(accepted.get(), count(dir));
+        } finally {
+            delete(dir);
+        }
+    }
+
+    @Test
+    public final void testMask() {
+        assertEquals(1<<PasswordConstraint.REUSE_CONSTRAINT.ordinal() | 1,
+                     PasswordAuditLog.mask(EnumSet.of(PasswordConstraint.LENGTH_CONSTRAINT,
+                                                      PasswordConstraint.REUSE_CONSTRAINT)));
+    }
+}
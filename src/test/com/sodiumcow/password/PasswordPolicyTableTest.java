@@ -0,0 +1,146 @@
+package com.sodiumcow.password;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.Test;
+
+public class PasswordPolicyTableTest {
+
+    private static File tempFile() throws IOException {
+        File file = File.createTempFile("policies", ".pwpt");
+        file.delete();
+        file.deleteOnExit();
+        return file;
+    }
+
+    @Test
+    public final void testPublish() throws IOException {
+        File                file   = tempFile();
+        PasswordPolicyTable writer = PasswordPolicyTable.create(file, 16, 256);
+        PasswordPolicyTable reader = PasswordPolicyTable.open(file);
+        try {
+            assertNull(reader.get(3));
+            PasswordRules rules = new PasswordRules("length>=8 upper>=1 maxrepeat<=2 !user special=\"!@#\"");
+            writer.publish(3, rules);
+            assertEquals(rules.toString(), reader.get(3).toString());
+            assertSame(reader.get(3), reader.get(3)); // parsed once per update
+            writer.publish(3, new PasswordRules("length>=12"));
+            assertEquals("length>=12", reader.get(3).toString());
+            writer.publish(4, new PasswordRules(""));
+            assertEquals("", reader.get(4).toString());
+            writer.publish(3, null);
+            assertNull(reader.get(3));
+            StringBuilder sparse = new StringBuilder();
+            for (char c='\u0100'; c<'\u0200'; c+=2) {
+                sparse.append(c);
+            }
+            try {
+                writer.publish(5, new PasswordRules("special=\""+sparse+"\""));
+                fail("oversized policy accepted");
+            } catch (IllegalArgumentException expected) {
+            }
+            try {
+                reader.publish(5, rules);
+                fail("reader published");
+            } catch (IllegalStateException expected) {
+            }
+            try {
+                PasswordPolicyTable.create(file, 16, 256);
+                fail("second writer opened");
+            } catch (IOException expected) {
+            }
+        } finally {
+            reader.close();
+            writer.close();
+        }
+        // reopening with the same geometry keeps the policies
+        writer = PasswordPolicyTable.create(file, 16, 256);
+        try {
+            assertEquals("", writer.get(4).toString());
+        } finally {
+            writer.close();
+        }
+    }
+
+    @Test
+    public final void testDeadWriter() throws IOException {
+        File                file   = tempFile();
+        PasswordPolicyTable writer = PasswordPolicyTable.create(file, 4, 64);
+        writer.publish(2, new PasswordRules("length>=8"));
+        writer.close();
+        PasswordPolicyTable warm = PasswordPolicyTable.open(file);
+        assertEquals("length>=8", warm.get(2).toString());
+        // the writer dies after making the sequence odd
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        try {
+            raf.seek(16+2*64);
+            int sequence = raf.readInt();
+            raf.seek(16+2*64);
+            raf.writeInt(sequence+1);
+        } finally {
+            raf.close();
+        }
+        PasswordPolicyTable reader = PasswordPolicyTable.open(file);
+        try {
+            try {
+                reader.get(2);
+                fail("stalled slot read");
+            } catch (IllegalStateException expected) {
+            }
+            long start = System.nanoTime();
+            try {
+                reader.get(2);
+                fail("stalled slot read");
+            } catch (IllegalStateException expected) {
+                // known stalled: no second wait
+                assertTrue(System.nanoTime()-start < PasswordPolicyTable.STALL_MILLIS*1000000L/2);
+            }
+            assertNull(reader.get(1)); // other slots unaffected
+            assertEquals("length>=8", warm.get(2).toString()); // read before the stall: still answers
+            writer = PasswordPolicyTable.create(file, 4, 64);
+            writer.close();
+            assertNull(reader.get(2)); // withdrawn by the new writer
+        } finally {
+            reader.close();
+            warm.close();
+        }
+    }
+
+    @Test
+    public final void testConcurrentUpdates() throws Exception {
+        File                      file   = tempFile();
+        final PasswordPolicyTable writer = PasswordPolicyTable.create(file, 1, 64);
+        final PasswordRules[]     rules  = {new PasswordRules("length>=8 upper>=1"),
+                                            new PasswordRules("length>=10 digit>=2 lower>=1")};
+        final AtomicReference<String> torn = new AtomicReference<String>();
+        writer.publish(0, rules[0]);
+        Thread updater = new Thread(new Runnable() {
+            public void run() {
+                for (int i=0; i<20000; i++) {
+                    writer.publish(0, rules[i%2]);
+                }
+            }
+        });
+        PasswordPolicyTable reader = PasswordPolicyTable.open(file);
+        try {
+            updater.start();
+            while (updater.isAlive()) {
+                String spec = reader.get(0).toString();
+                if (!spec.equals(rules[0].toString()) && !spec.equals(rules[1].toString())) {
+                    torn.set(spec);
+                }
+            }
+            updater.join();
+            assertNull(torn.get());
+            assertEquals(rules[1].toString(), reader.get(0).toString());
+        } finally {
+            reader.close();
+            writer.close();
+        }
+    }
+}
@@ -0,0 +1,170 @@
+package com.sodiumcow.password;
+
+import static org.junit.Assert.*;
+
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.Test;
+
+import com.sodiumcow.password.PasswordRules.PasswordConstraint;
+import com.sodiumcow.password.PasswordRules.PasswordMatcher;
+
+public class PasswordRulesServerTest {
+
+    private static final String SPEC = "length>=8 upper>=1 digit>=1 maxrepeat<=2 !user";
+
+    @Test
+    public final void testRoundTrip() throws Exception {
+        PasswordRules       rules  = new PasswordRules(SPEC);
+        PasswordRulesServer server = new PasswordRulesServer(0).setPolicy("default", rules);
+        try {
+            PasswordRulesClient client = new PasswordRulesClient(null, server.getPort());
+            try {
+                String[] passwords = {"Secret123", "short", "xxxAbcdef1", "Ajohn12345", "P\u00e4ssw\u00f6rd9"};
+                for (String p : passwords) {
+                    assertEquals(p, rules.getContentViolations(p, "john", null),
+                                 client.validate("default", "john", p, null));
+                }
+                assertEquals(EnumSet.of(PasswordConstraint.USERSUBSTRING_CONSTRAINT),
+                             client.validate("default", "john", "Ajohn12345", null));
+                assertEquals(EnumSet.noneOf(PasswordConstraint.class),
+                             client.validate("default", null, "Ajohn12345", null));
+                try {
+                    client.validate("missing", "john", "Secret123", null);
+                    fail("unknown policy accepted");
+                } catch (IllegalArgumentException expected) {
+                    // the connection stays usable
+                }
+                server.setPolicy("missing", new PasswordRules("length>=12"));
+                assertEquals(EnumSet.of(PasswordConstraint.LENGTH_CONSTRAINT),
+                             client.validate("missing", "john", "Secret123", null));
+            } finally {
+                client.close();
+            }
+        } finally {
+            server.close();
+        }
+    }
+
+    /**
+     * Returns whether a thread is virtual, or null before Java 21.
+     */
+    private static Boolean isVirtual(Thread thread) throws Exception {
+        Method isVirtual;
+        try {
+            isVirtual = Thread.class.getMethod("isVirtual");
+        } catch (NoSuchMethodException e) {
+            return null;
+        }
+        return (Boolean)isVirtual.invoke(thread);
+    }
+
+    @Test
+    public final void testConnectionThreads() throws Exception {
+        final AtomicReference<Thread> served = new AtomicReference<Thread>();
+        PasswordRules rules = new PasswordRules(SPEC) {
+            @Override
+            public EnumSet<PasswordConstraint> getContentViolations(String password, String user,
+                                                                   PasswordMatcher matcher, String current) {
+                served.set(Thread.currentThread());
+                return super.getContentViolations(password, user, matcher, current);
+            }
+        };
+        PasswordRulesServer server = new PasswordRulesServer(0).setPolicy("default", rules);
+        try {
+            PasswordRulesClient client = new PasswordRulesClient(null, server.getPort());
+            try {
+                client.validate("default", "john", "Secret123", null);
+            } finally {
+                client.close();
+            }
+        } finally {
+            server.close();
+        }
+        Boolean virtual = isVirtual(served.get());
+        if (virtual==null) {
+            assertTrue(served.get().isDaemon()); // platform fallback
+        } else {
+            assertTrue("connection served on a platform thread", virtual);
+        }
+    }
+
+    /**
+     * Pipelines batches over one connection to measure local throughput.
+     */
+    @Test(timeout=60000)
+    public final void testSendBeforeReceive() throws Exception {
+        PasswordRulesServer server = new PasswordRulesServer(0).setPolicy("default", new PasswordRules(SPEC));
+        try {
+            PasswordRulesClient client = new PasswordRulesClient(null, server.getPort());
+            try {
+                List<PasswordRulesClient.Check> batch = new ArrayList<PasswordRulesClient.Check>();
+                for (int i=0; i<1000; i++) {
+                    batch.add(new PasswordRulesClient.Check(i==0 ? "default" : "none", "user", "s"+i, null));
+                }
+                // far more results than the socket buffers hold: send must read ahead
+                int batches = 2000;
+                for (int b=0; b<batches; b++) {
+                    assertEquals(b, client.send(batch));
+                }
+                try {
+                    client.receive(1);
+                    fail("received out of order");
+                } catch (IllegalArgumentException expected) {
+                }
+                for (int b=0; b<batches; b++) {
+                    int[] masks = client.receive(b);
+                    assertEquals(batch.size(), masks.length);
+                    assertTrue((masks[0] & 1<<PasswordConstraint.LENGTH_CONSTRAINT.ordinal()) != 0);
+                    assertEquals(PasswordRulesServer.UNKNOWN_POLICY, masks[1]);
+                }
+                assertEquals(EnumSet.noneOf(PasswordConstraint.class), client.validate("default", "user", "Secret123", null));
+            } finally {
+                client.close();
+            }
+        } finally {
+            server.close();
+        }
+    }
+
+    @Test
+    public final void testPipelinedThroughput() throws Exception {
+        PasswordRulesServer server = new PasswordRulesServer(0).setPolicy("default", new PasswordRules(SPEC));
+        try {
+            PasswordRulesClient client = new PasswordRulesClient(null, server.getPort());
+            try {
+                List<PasswordRulesClient.Check> batch = new ArrayList<PasswordRulesClient.Check>();
+                for (int i=0; i<100; i++) {
+                    batch.add(new PasswordRulesClient.Check("default", "user"+i, (i%2==0 ? "Secret" : "s")+i, null));
+                }
+                int   batches  = 500;
+                int   window   = 16;
+                int[] ids      = new int[batches];
+                long  start    = System.nanoTime();
+                for (int b=0; b<batches+window; b++) {
+                    if (b<batches) {
+                        ids[b] = client.send(batch);
+                    }
+                    if (b>=window) {
+                        int[] masks = client.receive(ids[b-window]);
+                        assertEquals(batch.size(), masks.length);
+                        assertEquals(0, masks[0] & ~(1<<PasswordConstraint.LENGTH_CONSTRAINT.ordinal()));
+                        assertTrue((masks[1] & 1<<PasswordConstraint.UPPERCASE_CONSTRAINT.ordinal()) != 0);
+                    }
+                }
+                double seconds = (System.nanoTime()-start)/1e9;
+                // a floor far below the pipelined rate, so only a gross regression fails;
+                // LoadGenerator measures the real rate
+                assertTrue(batches*batch.size()/seconds+" validations/s", batches*batch.size()/seconds > 5000);
+            } finally {
+                client.close();
+            }
+        } finally {
+            server.close();
+        }
+    }
+}
@@ -2,9 +2,14 @@ package com.sodiumcow.password;
 
 import static org.junit.Assert.*;
 
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
 import java.util.Date;
 import java.util.EnumSet;
+import java.util.List;
 import java.util.Map;
+import java.util.Random;
 
 import org.junit.Test;
 
@@ -73,6 +78,10 @@ public class PasswordRulesTest {
         assertTrue(counts.get(CharacterType.UPPER  )==26);
         assertTrue(counts.get(CharacterType.LOWER  )==26);
         assertTrue(counts.get(CharacterType.SPECIAL)==32);
+
+        CharacterRuns runs = new CharacterRuns();
+        assertEquals(counts, CharacterType.of(new String(test), runs));
+        assertEquals(26, runs.getMaxSequence()); // A-Z, a-z
     }
 
     @Test
@@ -120,6 +129,264 @@ public class PasswordRulesTest {
                      EnumSet.noneOf(PasswordConstraint.class));
     }
 
+    @Test
+    public final void testSimilarValidation() {
+        PasswordRules test = new PasswordRules("similar<=2");
+        assertEquals(test.toString(), "similar<=2");
+        assertEquals(test.getContentViolations("Summer2026!", null, null, "Summer2025!"),
+                     EnumSet.of(PasswordConstraint.SIMILAR_CONSTRAINT));
+        assertEquals(test.getContentViolations("Summer2026!", null, null, "Winter2026?"),
+                     EnumSet.noneOf(PasswordConstraint.class));
+        assertEquals(test.getContentViolations("Summer2026!", null, null),
+                     EnumSet.noneOf(PasswordConstraint.class));
+    }
+
+    @Test
+    public final void testEditDistance() {
+        assertEquals(3, EditDistance.levenshtein("kitten", "sitting", 5));
+        assertEquals(3, EditDistance.levenshtein("sitting", "kitten", 3));
+        assertEquals(3, EditDistance.levenshtein("kitten", "sitting", 2));
+        assertEquals(2, EditDistance.levenshtein("abcd", "abdc", 5));
+        assertEquals(1, EditDistance.damerau("abcd", "abdc", 5));
+        assertEquals(3, EditDistance.damerau("", "abc", 5));
+        assertEquals(0, EditDistance.damerau("same", "same", 0));
+        try {
+            EditDistance.levenshtein("a", "b", -1);
+            fail("negative bound accepted");
+        } catch (IllegalArgumentException expected) {
+        }
+        // both paths (bit-parallel up to 64 characters, the matrix beyond) against a plain matrix
+        Random random   = new Random(1);
+        String alphabet = "abcab\u00e9";
+        for (int n=0; n<3000; n++) {
+            String a = randomString(random, alphabet, 40+random.nextInt(50));
+            String b = random.nextBoolean() ? randomString(random, alphabet, 40+random.nextInt(50))
+                                            : mutate(random, a, alphabet);
+            int    k = random.nextInt(90);
+            assertEquals(a+" "+b, Math.min(plainDistance(a, b, false), k+1), EditDistance.levenshtein(a, b, k));
+            assertEquals(a+" "+b, Math.min(plainDistance(a, b, true), k+1), EditDistance.damerau(a, b, k));
+        }
+    }
+
+    private static String randomString(Random random, String alphabet, int length) {
+        StringBuilder sb = new StringBuilder();
+        for (int i=0; i<length; i++) {
+            sb.append(alphabet.charAt(random.nextInt(alphabet.length())));
+        }
+        return sb.toString();
+    }
+
+    /** A few random edits, including swaps, so that distances are small. */
+    private static String mutate(Random random, String s, String alphabet) {
+        StringBuilder sb = new StringBuilder(s);
+        for (int edits=random.nextInt(6); edits>0 && sb.length()>1; edits--) {
+            int  i = random.nextInt(sb.length()-1);
+            char c = alphabet.charAt(random.nextInt(alphabet.length()));
+            switch (random.nextInt(4)) {
+            case 0: sb.insert(i, c); break;
+            case 1: sb.deleteCharAt(i); break;
+            case 2: sb.setCharAt(i, c); break;
+            default:
+                char t = sb.charAt(i);
+                sb.setCharAt(i, sb.charAt(i+1));
+                sb.setCharAt(i+1, t);
+            }
+        }
+        return sb.toString();
+    }
+
+    /** Unbounded Levenshtein or optimal string alignment distance, the textbook way. */
+    private static int plainDistance(String a, String b, boolean transpose) {
+        int[][] d = new int[a.length()+1][b.length()+1];
+        for (int i=0; i<=a.length(); i++) {
+            for (int j=0; j<=b.length(); j++) {
+                if (i==0 || j==0) {
+                    d[i][j] = i+j;
+                    continue;
+                }
+                d[i][j] = Math.min(Math.min(d[i-1][j]+1, d[i][j-1]+1),
+                                   d[i-1][j-1]+(a.charAt(i-1)==b.charAt(j-1) ? 0 : 1));
+                if (transpose && i>1 && j>1 && a.charAt(i-1)==b.charAt(j-2) && a.charAt(i-2)==b.charAt(j-1)) {
+                    d[i][j] = Math.min(d[i][j], d[i-2][j-2]+1);
+                }
+            }
+        }
+        return d[a.length()][b.length()];
+    }
+
+    @Test
+    public final void testRunValidation() {
+        PasswordRules test = new PasswordRules("keywalk<=3 maxsequence<=3 maxrepeat<=2");
+        assertEquals(test.toString(), "maxrepeat<=2 maxsequence<=3 keywalk<=3");
+        assertEquals(test.getContentViolations("xaaax", null, null),
+                     EnumSet.of(PasswordConstraint.REPEATED_CONSTRAINT));
+        assertEquals(test.getContentViolations("x1234x", null, null),
+                     EnumSet.of(PasswordConstraint.SEQUENCE_CONSTRAINT,
+                                PasswordConstraint.KEYWALK_CONSTRAINT)); // also a walk
+        assertEquals(test.getContentViolations("x1357x", null, null),
+                     EnumSet.noneOf(PasswordConstraint.class));
+        assertEquals(test.getContentViolations("xDCBAx", null, null),
+                     EnumSet.of(PasswordConstraint.SEQUENCE_CONSTRAINT));
+        assertEquals(test.getContentViolations("Qwerty", null, null),
+                     EnumSet.of(PasswordConstraint.KEYWALK_CONSTRAINT));
+        assertEquals(test.getContentViolations("1qaz", null, null),
+                     EnumSet.of(PasswordConstraint.KEYWALK_CONSTRAINT));
+        assertEquals(test.getContentViolations("!QAZ", null, null),
+                     EnumSet.of(PasswordConstraint.KEYWALK_CONSTRAINT));
+        assertEquals(test.getContentViolations("aa123qwe", null, null),
+                     EnumSet.noneOf(PasswordConstraint.class));
+
+        // the validator engine agrees
+        PasswordRuleValidator validator = new PasswordRuleValidator("user");
+        validator.setPackageText(new PackageText());
+        assertNotNull(validator.verifyPassword("user", "xaaax", test));
+        assertNotNull(validator.verifyPassword("user", "x1234x", test));
+        assertNotNull(validator.verifyPassword("user", "xqwerx", test));
+        assertNull   (validator.verifyPassword("user", "x1357x", test));
+    }
+
+    @Test
+    public final void testConstraintGrammar() {
+        Map<com.sodiumcow.password.PasswordConstraint,Integer> constraints =
+            com.sodiumcow.password.PasswordConstraint.parse("maxrepeat<=2 maxsequence<=3 keywalk<=3");
+        CharacterCounts counts = new CharacterCounts();
+        for (com.sodiumcow.password.PasswordConstraint c : constraints.keySet()) {
+            assertTrue(c.validate(constraints, "aa123qwe", counts, null, null, null));
+        }
+        counts = new CharacterCounts();
+        assertFalse(com.sodiumcow.password.PasswordConstraint.KEYWALK_CONSTRAINT
+                    .validate(constraints, "asdf", counts, null, null, null));
+        assertEquals(counts.get(com.sodiumcow.password.CharacterType.LOWER), Integer.valueOf(4));
+    }
+
+    @Test
+    public final void testDictionaryValidation() throws IOException {
+        List<String> words = Arrays.asList("troubador", "horse", "battery", "staple",
+                                           "correct", "horses", "stable", "it");
+        PasswordRules test = new PasswordRules("!dictword>=4")
+                                 .setDictionary(PasswordDictionary.of(words));
+        assertEquals(test.toString(), "!dictword>=4");
+        assertEquals(test.getContentViolations("Tr0ub4dor2024", null, null),
+                     EnumSet.of(PasswordConstraint.DICTWORD_CONSTRAINT));
+        assertEquals(test.getContentViolations("xx5tab1e!", null, null),
+                     EnumSet.of(PasswordConstraint.DICTWORD_CONSTRAINT));
+        assertEquals(test.getContentViolations("h0r5Xbatt", null, null),
+                     EnumSet.noneOf(PasswordConstraint.class));
+        assertEquals(test.getContentViolations("it1s", null, null),  // "it" is too short
+                     EnumSet.noneOf(PasswordConstraint.class));
+
+        // the validator engine agrees
+        PasswordRuleValidator validator = new PasswordRuleValidator("user");
+        validator.setPackageText(new PackageText());
+        assertNotNull(validator.verifyPassword("user", "Tr0ub4dor2024", test));
+        assertNull   (validator.verifyPassword("user", "h0r5Xbatt", test));
+
+        // the same dictionary written to and memory-mapped from a file
+        File file = File.createTempFile("dictionary", ".dawg");
+        try {
+            PasswordDictionary.write(PasswordDictionary.compile(words), file);
+            PasswordDictionary mapped = PasswordDictionary.load(file);
+            assertTrue(mapped.containsWord("C0rrectH0rse", 7));
+            assertFalse(mapped.containsWord("C0rrectH0rse", 8));
+        } finally {
+            file.delete();
+        }
+    }
+
+    @Test
+    public final void testFingerprints() {
+        PasswordRules weak   = new PasswordRules("length>=8 digit>=1 keywalk<=5");
+        PasswordRules strong = new PasswordRules("length>=12 digit>=2 upper>=1 keywalk<=4 !user");
+        assertTrue (strong.isAtLeastAsStrictAs(weak));
+        assertFalse(weak.isAtLeastAsStrictAs(strong));
+        assertTrue (weak.isAtLeastAsStrictAs(weak));
+        assertFalse(strong.needsRevalidation(strong.getContentFingerprint()));
+        assertTrue (strong.needsRevalidation(weak.getContentFingerprint()));
+        assertFalse(weak.needsRevalidation(strong.getContentFingerprint()));
+        // the same limits in another format (the top 4 bits below UNENCODABLE) imply nothing
+        assertTrue (weak.needsRevalidation(strong.getContentFingerprint()+(1L<<59)));
+        assertTrue (weak.needsRevalidation(strong.getContentFingerprint() & ~(0xfL<<59)));
+
+        // reuse, age and similarity do not apply to an existing password
+        assertEquals(weak.getContentFingerprint(),
+                     new PasswordRules("length>=8 digit>=1 keywalk<=5 repeat>=4 age<=30 similar<=2").getContentFingerprint());
+        // turning on a MAX constraint is stricter
+        assertTrue(new PasswordRules("length>=8 digit>=1 keywalk<=5 maxrepeat<=3")
+                   .needsRevalidation(weak.getContentFingerprint()));
+
+        // a different dictionary is not comparable
+        PasswordRules dict1 = new PasswordRules("!dictword>=4").setDictionary(PasswordDictionary.of(Arrays.asList("horse")));
+        PasswordRules dict2 = new PasswordRules("!dictword>=5").setDictionary(PasswordDictionary.of(Arrays.asList("horse")));
+        PasswordRules dict3 = new PasswordRules("!dictword>=5").setDictionary(PasswordDictionary.of(Arrays.asList("stable")));
+        assertTrue (dict1.isAtLeastAsStrictAs(dict2));
+        assertFalse(dict2.isAtLeastAsStrictAs(dict1));
+        assertFalse(dict1.isAtLeastAsStrictAs(dict3));
+
+        // limits too large to fingerprint always need revalidation
+        PasswordRules huge = new PasswordRules("length>=200");
+        assertEquals(PasswordRules.UNENCODABLE, huge.getContentFingerprint());
+        assertTrue(huge.needsRevalidation(huge.getContentFingerprint()));
+        assertEquals(PasswordRules.UNENCODABLE, new PasswordRules("length>=64").getContentFingerprint());
+        assertEquals(PasswordRules.UNENCODABLE, new PasswordRules("digit>=16").getContentFingerprint());
+        assertEquals(PasswordRules.UNENCODABLE, new PasswordRules("maxrepeat<=15").getContentFingerprint());
+        PasswordRules largest = new PasswordRules("length>=63 upper>=15 maxrepeat<=14 !dictword>=15")
+                                .setDictionary(PasswordDictionary.of(Arrays.asList("horse")));
+        assertFalse(largest.needsRevalidation(largest.getContentFingerprint()));
+
+        // character classes compare only with identical definitions
+        PasswordRules special  = new PasswordRules("length>=8 special>=1 special=\"!@#\"");
+        PasswordRules stricter = new PasswordRules("length>=10 special>=1 special=\"#@!\"");
+        assertFalse(special.needsRevalidation(special.getContentFingerprint()));
+        assertTrue (stricter.isAtLeastAsStrictAs(special));
+        assertFalse(special.isAtLeastAsStrictAs(stricter));
+        assertFalse(new PasswordRules("length>=10 special>=1 special=\"!@\"").isAtLeastAsStrictAs(special));
+        assertFalse(new PasswordRules("length>=10 special>=1").isAtLeastAsStrictAs(special));
+        assertFalse(stricter.isAtLeastAsStrictAs(new PasswordRules("length>=8 special>=1")));
+        assertFalse(new PasswordRules("length>=10 special>=1 special=\"!@#\" allowed=\"!-~\"").isAtLeastAsStrictAs(special));
+    }
+
+    @Test
+    public final void testCharacterClasses() {
+        CharacterClass cls = CharacterClass.parse("a-f!@#\\-\\\"\u00e9\u00e0-\u00e5");
+        assertTrue (cls.contains('c'));
+        assertTrue (cls.contains('-'));
+        assertTrue (cls.contains('"'));
+        assertTrue (cls.contains('\u00e3'));
+        assertFalse(cls.contains('g'));
+        assertFalse(cls.contains('\u00e6'));
+        assertEquals(cls, CharacterClass.parse(cls.toString()));
+        try {
+            CharacterClass.parse("z-a");
+            fail();
+        } catch (IllegalArgumentException e) {
+            assertTrue(e.getMessage().startsWith("invalid character class range"));
+        }
+
+        PasswordRules test = new PasswordRules("special>=1 special=\"!@#$%\" allowed=\"a-zA-Z0-9!@#$%\"");
+        assertEquals(test.toString(), "special>=1 special=\"!#-%@\" allowed=\"!#-%0-9@-Za-z\"");
+        assertEquals(new PasswordRules(test.toString()).toString(), test.toString());
+        assertEquals(test.getContentViolations("abc!", null, null),
+                     EnumSet.noneOf(PasswordConstraint.class));
+        assertEquals(test.getContentViolations("abc^", null, null),
+                     EnumSet.of(PasswordConstraint.SPECIAL_CONSTRAINT,
+                                PasswordConstraint.FORBIDDEN_CONSTRAINT));
+        assertEquals(test.getContentViolations("abc!~", null, null),
+                     EnumSet.of(PasswordConstraint.FORBIDDEN_CONSTRAINT));
+
+        // the validator engine agrees
+        PasswordRuleValidator validator = new PasswordRuleValidator("user");
+        validator.setPackageText(new PackageText());
+        assertNull(validator.verifyPassword("user", "abc!", test));
+        assertNotNull(validator.verifyPassword("user", "abc^", test));
+        assertNotNull(validator.verifyPassword("user", "abc!~", test));
+        try {
+            new PasswordRules("length=\"abc\"");
+            fail();
+        } catch (IllegalArgumentException e) {
+            assertTrue(e.getMessage().startsWith("length>=number expected"));
+        }
+    }
+
     @Test
     public final void testExpiration() {
         PasswordRules test = new PasswordRules("age<=3");
@@ -0,0 +1,80 @@
+package com.sodiumcow.password;
+
+import static org.junit.Assert.*;
+
+import java.util.EnumSet;
+
+import org.junit.Test;
+
+import com.sodiumcow.password.PasswordRules.PasswordConstraint;
+import com.sodiumcow.password.PasswordRules.PasswordMatcher;
+
+public class ReuseCacheTest {
+
+    /** History of "old0", "old1", ... counting calls to matches(). */
+    private static class History implements PasswordMatcher {
+        int calls = 0;
+        int size  = 5;
+        public Result matches(String password, int generation) {
+            calls++;
+            if (generation>=size) return Result.NO_GENERATION;
+            return password.equals("old"+generation) ? Result.MATCH : Result.NO_MATCH;
+        }
+    }
+
+    @Test
+    public final void testCachedRejection() {
+        PasswordRules rules   = new PasswordRules("repeat>=5");
+        ReuseCache    cache   = new ReuseCache(100, 60000);
+        History       history = new History();
+        for (int i=0; i<3; i++) {
+            assertEquals(EnumSet.of(PasswordConstraint.REUSE_CONSTRAINT),
+                         rules.getContentViolations("old3", "user", cache.matcher("user", history)));
+        }
+        assertEquals(4, history.calls); // only the first walk hit the history
+        // accepted passwords are not cached
+        assertEquals(EnumSet.noneOf(PasswordConstraint.class),
+                     rules.getContentViolations("new", "user", cache.matcher("user", history)));
+        assertEquals(EnumSet.noneOf(PasswordConstraint.class),
+                     rules.getContentViolations("new", "user", cache.matcher("user", history)));
+        assertEquals(4+5+5, history.calls);
+        // other users are unaffected
+        rules.getContentViolations("old3", "other", cache.matcher("other", history));
+        assertEquals(4+5+5+4, history.calls);
+    }
+
+    @Test
+    public final void testInvalidation() {
+        PasswordRules rules   = new PasswordRules("repeat>=5");
+        ReuseCache    cache   = new ReuseCache(100, 60000);
+        History       history = new History();
+        rules.getContentViolations("old2", "user", cache.matcher("user", history));
+        cache.invalidate("user");
+        history.size = 2; // history changed: old2 has aged out
+        assertEquals(EnumSet.noneOf(PasswordConstraint.class),
+                     rules.getContentViolations("old2", "user", cache.matcher("user", history)));
+    }
+
+    @Test
+    public final void testExpiry() throws InterruptedException {
+        PasswordRules rules   = new PasswordRules("repeat>=5");
+        ReuseCache    cache   = new ReuseCache(100, 20);
+        History       history = new History();
+        rules.getContentViolations("old1", "user", cache.matcher("user", history));
+        Thread.sleep(50);
+        rules.getContentViolations("old1", "user", cache.matcher("user", history));
+        assertEquals(4, history.calls);
+    }
+
+    @Test
+    public final void testEviction() {
+        PasswordRules rules   = new PasswordRules("repeat>=5");
+        ReuseCache    cache   = new ReuseCache(2, 60000);
+        History       history = new History();
+        rules.getContentViolations("old0", "a", cache.matcher("a", history));
+        rules.getContentViolations("old0", "b", cache.matcher("b", history));
+        rules.getContentViolations("old0", "c", cache.matcher("c", history));
+        rules.getContentViolations("old0", "a", cache.matcher("a", history));
+        assertEquals(4, history.calls); // a was evicted
+    }
+}
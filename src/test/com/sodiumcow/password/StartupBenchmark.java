@@ -0,0 +1,66 @@
+package com.sodiumcow.password;
+
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Measures time to first validation in a fresh JVM: parsing a spec with
+ * both rule engines and checking one password, as a password-reset CLI or
+ * short batch job would.  Run it once per JVM; src/scripts/startup-archive.sh
+ * also uses it as the training run for the AppCDS archive.
+ * <p>
+ * Usage:
+ * <pre>
+ *    java com.sodiumcow.password.StartupBenchmark [--option=value]...
+ *
+ *    --rules=spec       the rules spec
+ *    --launched=millis  epoch millis the JVM was launched at, e.g. $(date +%s%3N)
+ *    --label=text       label for the CSV row (dev)
+ *    --header=true      print the CSV header first
+ * </pre>
+ */
+public class StartupBenchmark {
+
+    private static final String HEADER = "label,launch_to_first_ms,main_to_first_us,rules_us,constraints_us";
+
+    public static void main(String[] args) {
+        long               entered = System.nanoTime();
+        Map<String,String> options = new HashMap<String,String>();
+        for (String arg : args) {
+            int eq = arg.indexOf('=');
+            if (!arg.startsWith("--") || eq<0) {
+                System.err.println("usage: StartupBenchmark [--option=value]... (see javadoc)");
+                System.exit(1);
+            }
+            options.put(arg.substring(2, eq), arg.substring(eq+1));
+        }
+        String spec = options.containsKey("rules") ? options.get("rules")
+                                                   : "length>=8 upper>=1 lower>=1 digit>=1 special>=1 maxrepeat<=3 keywalk<=4 !user";
+
+        long          start = System.nanoTime();
+        PasswordRules rules = new PasswordRules(spec);
+        if (rules.getContentViolations("Tr0ub4dor&3", "user", null).size()<0) {
+            throw new IllegalStateException(); // keep the result live
+        }
+        long rulesDone = System.nanoTime();
+
+        EnumMap<PasswordConstraint,Integer> constraints = PasswordConstraint.parse(spec);
+        CharacterCounts                     counts      = new CharacterCounts();
+        for (Map.Entry<PasswordConstraint,Integer> c : constraints.entrySet()) {
+            c.getKey().validate(constraints, "Tr0ub4dor&3", counts, "user", null, null);
+        }
+        long   done     = System.nanoTime();
+        String launched = options.get("launched");
+
+        if (Boolean.parseBoolean(options.get("header"))) {
+            System.out.println(HEADER);
+        }
+        System.out.println(String.format("%s,%s,%.1f,%.1f,%.1f",
+                                         options.containsKey("label") ? options.get("label") : "dev",
+                                         launched==null ? "" : String.valueOf(System.currentTimeMillis()-Long.parseLong(launched)),
+                                         (done-entered)/1000.0,
+                                         (rulesDone-start)/1000.0,
+                                         (done-rulesDone)/1000.0));
+    }
+}